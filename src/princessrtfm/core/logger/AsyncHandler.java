@@ -0,0 +1,344 @@
+package princessrtfm.core.logger;
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+
+/**
+ * A {@link Handler} that hands records off to a single background thread, which does all of the
+ * formatting and writing. Logging threads only pay for copying a reference into a bounded,
+ * preallocated ring buffer. When the buffer is full, the {@link OverflowPolicy} decides what
+ * happens to new records.<br/>
+ * <br/>
+ * By default, output goes to <tt>System.err</tt> (like {@link java.util.logging.ConsoleHandler})
+ * using a {@link MagicFormatter}.
+ */
+public class AsyncHandler extends Handler {
+	/**
+	 * What to do with a new record when the ring buffer is full
+	 */
+	public static enum OverflowPolicy {
+		/**
+		 * Make the logging thread wait until there's room
+		 */
+		BLOCK,
+		/**
+		 * Throw away the new record
+		 */
+		DROP_NEWEST,
+		/**
+		 * Throw away the new record if it's below the handler's drop threshold, otherwise wait
+		 * until there's room
+		 *
+		 * @see AsyncHandler#getDropThreshold()
+		 */
+		DROP_BELOW_LEVEL;
+	}
+	/**
+	 * The default number of records the ring buffer can hold
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+	/**
+	 * The default overflow policy
+	 */
+	public static final OverflowPolicy DEFAULT_POLICY = OverflowPolicy.BLOCK;
+	/**
+	 * The default level below which records may be dropped under
+	 * {@link OverflowPolicy#DROP_BELOW_LEVEL}
+	 */
+	public static final java.util.logging.Level DEFAULT_DROP_THRESHOLD = Level.WARNING;
+	protected final LogRecord[] ring;
+	protected final int mask;
+	protected int head = 0;
+	protected int count = 0;
+	protected boolean busy = false;
+	protected boolean closed = false;
+	protected long dropped = 0;
+	protected final ReentrantLock lock = new ReentrantLock();
+	protected final Condition notEmpty = lock.newCondition();
+	protected final Condition notFull = lock.newCondition();
+	protected final Condition idle = lock.newCondition();
+	protected final OverflowPolicy policy;
+	protected volatile java.util.logging.Level dropThreshold = DEFAULT_DROP_THRESHOLD;
+	protected final OutputStream stream;
+	protected final Writer writer;
+	protected final Thread consumer;
+	protected boolean wroteHead = false;
+	/**
+	 * Create a handler writing to <tt>System.err</tt> with the default capacity and overflow
+	 * policy
+	 */
+	public AsyncHandler() {
+		this(System.err);
+	}
+	/**
+	 * Create a handler writing to the given stream with the default capacity and overflow policy
+	 *
+	 * @param out
+	 *        the stream to write formatted records to
+	 */
+	public AsyncHandler(OutputStream out) {
+		this(out, DEFAULT_CAPACITY, DEFAULT_POLICY);
+	}
+	/**
+	 * Create a handler writing to the given stream
+	 *
+	 * @param out
+	 *        the stream to write formatted records to
+	 * @param capacity
+	 *        the number of records the ring buffer can hold (rounded up to a power of two)
+	 * @param overflow
+	 *        what to do with new records when the ring buffer is full
+	 */
+	public AsyncHandler(OutputStream out, int capacity, OverflowPolicy overflow) {
+		super();
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+		}
+		if (capacity > 1 << 30) {
+			capacity = 1 << 30;
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		ring = new LogRecord[size];
+		mask = size - 1;
+		policy = overflow == null ? DEFAULT_POLICY : overflow;
+		stream = out;
+		writer = new BufferedWriter(new OutputStreamWriter(out));
+		setFormatter(new MagicFormatter());
+		consumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				consume();
+			}
+		}, "AsyncHandler-" + Integer.toHexString(System.identityHashCode(this)));
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+	/**
+	 * @return the policy applied when the ring buffer is full
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return policy;
+	}
+	/**
+	 * @return the level below which records are dropped when the ring buffer is full, if the
+	 *         overflow policy is {@link OverflowPolicy#DROP_BELOW_LEVEL}
+	 */
+	public java.util.logging.Level getDropThreshold() {
+		return dropThreshold;
+	}
+	/**
+	 * @param threshold
+	 *        the level below which records are dropped when the ring buffer is full, if the
+	 *        overflow policy is {@link OverflowPolicy#DROP_BELOW_LEVEL}
+	 */
+	public void setDropThreshold(java.util.logging.Level threshold) {
+		dropThreshold = threshold == null ? DEFAULT_DROP_THRESHOLD : threshold;
+	}
+	/**
+	 * @return the number of records the ring buffer can hold
+	 */
+	public int getCapacity() {
+		return ring.length;
+	}
+	/**
+	 * @return the number of records thrown away so far because the ring buffer was full (or the
+	 *         handler was closed)
+	 */
+	public long getDroppedCount() {
+		lock.lock();
+		try {
+			return dropped;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Queue a record to be formatted and written by the background thread
+	 */
+	@Override
+	public void publish(LogRecord rec) {
+		if (!isLoggable(rec)) {
+			return;
+		}
+		if (!(getFormatter() instanceof MagicFormatter)) {
+			// Other formatters may want the caller, which can only be worked out on this thread
+			rec.getSourceClassName();
+		}
+		lock.lock();
+		try {
+			while (count == ring.length && !closed) {
+				if (policy == OverflowPolicy.DROP_NEWEST || (policy == OverflowPolicy.DROP_BELOW_LEVEL && rec.getLevel().intValue() < dropThreshold.intValue())) {
+					++dropped;
+					LogMetrics.GLOBAL.dropped();
+					return;
+				}
+				notFull.awaitUninterruptibly();
+			}
+			if (closed) {
+				++dropped;
+				LogMetrics.GLOBAL.dropped();
+				return;
+			}
+			ring[(head + count) & mask] = rec;
+			++count;
+			notEmpty.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Wait for every queued record to be written, then flush the output stream
+	 */
+	@Override
+	public void flush() {
+		lock.lock();
+		try {
+			while ( (count > 0 || busy) && consumer.isAlive()) {
+				idle.awaitUninterruptibly();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		try {
+			writer.flush();
+		}
+		catch (IOException e) {
+			reportError(null, e, ErrorManager.FLUSH_FAILURE);
+		}
+	}
+	/**
+	 * Stop accepting records, write out everything still queued, and close the output stream
+	 * (unless it's <tt>System.out</tt> or <tt>System.err</tt>, which are only flushed)
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+		boolean interrupted = false;
+		while (consumer.isAlive()) {
+			try {
+				consumer.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		try {
+			Formatter fmt = getFormatter();
+			if (wroteHead && fmt != null) {
+				writer.write(fmt.getTail(this));
+			}
+			writer.flush();
+			if (stream != System.err && stream != System.out) {
+				writer.close();
+			}
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	/**
+	 * The body of the background thread: take every queued record in one go, format and write
+	 * them without holding the lock, then flush once per batch
+	 */
+	protected void consume() {
+		LogRecord[] batch = new LogRecord[ring.length];
+		while (true) {
+			int taken = 0;
+			lock.lock();
+			try {
+				while (count == 0 && !closed) {
+					busy = false;
+					idle.signalAll();
+					notEmpty.awaitUninterruptibly();
+				}
+				if (count == 0) {
+					busy = false;
+					idle.signalAll();
+					return;
+				}
+				busy = true;
+				while (count > 0) {
+					batch[taken++] = ring[head];
+					ring[head] = null;
+					head = (head + 1) & mask;
+					--count;
+				}
+				notFull.signalAll();
+			}
+			finally {
+				lock.unlock();
+			}
+			for (int i = 0; i < taken; ++i) {
+				write(batch[i]);
+				batch[i] = null;
+			}
+			try {
+				writer.flush();
+			}
+			catch (IOException e) {
+				reportError(null, e, ErrorManager.FLUSH_FAILURE);
+			}
+		}
+	}
+	/**
+	 * Format and write a single record; only ever called from the background thread
+	 *
+	 * @param rec
+	 *        the record to write
+	 */
+	protected void write(LogRecord rec) {
+		Formatter fmt = getFormatter();
+		try {
+			if (!wroteHead) {
+				wroteHead = true;
+				if (fmt != null) {
+					writer.write(fmt.getHead(this));
+				}
+			}
+			if (fmt instanceof MagicFormatter) {
+				((MagicFormatter) fmt).formatTo(rec, writer);
+			}
+			else if (fmt != null) {
+				writer.write(fmt.format(rec));
+			}
+			else {
+				writer.write(String.valueOf(rec.getMessage()));
+				writer.write('\n');
+			}
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package princessrtfm.core.logger;
+
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.LogRecord;
+
+
+/**
+ * Reads a binary log written by {@link BinaryLogHandler} back into {@link LogRecord}s, which can
+ * then be rendered as text by any formatter. Thread names aren't stored in binary logs, so the
+ * {@link MagicFormatter.FormatCode#SOURCE_THREAD_NAME} code only works for threads that are still
+ * alive in the decoding JVM; exceptions come back as their <tt>toString()</tt> only.
+ *
+ * @see BinaryLogHandler
+ */
+public class BinaryLogDecoder implements Closeable {
+	/**
+	 * Stands in for a logged exception, of which only the <tt>toString()</tt> was kept
+	 */
+	public static class DecodedThrowable extends Throwable {
+		private static final long serialVersionUID = 2093584472193750571L;
+		protected final String text;
+		@SuppressWarnings("javadoc")
+		public DecodedThrowable(String original) {
+			super(original, null, false, false);
+			text = original;
+		}
+		/**
+		 * @return the <tt>toString()</tt> of the original exception
+		 */
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+	/**
+	 * Stands in for a level that doesn't exist in the decoding JVM
+	 */
+	protected static class DecodedLevel extends java.util.logging.Level {
+		private static final long serialVersionUID = -1961416213893839342L;
+		protected DecodedLevel(String name, int value) {
+			super(name, value);
+		}
+	}
+	protected final InputStream in;
+	protected final Map<Integer, java.util.logging.Level> levels = new HashMap<Integer, java.util.logging.Level>();
+	protected final Map<Integer, String> loggers = new HashMap<Integer, String>();
+	protected final Map<Integer, String> templates = new HashMap<Integer, String>();
+	protected byte[] scratch = new byte[256];
+	protected long lastNanos = 0;
+	/**
+	 * Prepare to decode the given stream, checking its header
+	 *
+	 * @param stream
+	 *        the binary log to read
+	 * @throws IOException
+	 *         if the stream can't be read or isn't a binary log this class understands
+	 */
+	public BinaryLogDecoder(InputStream stream) throws IOException {
+		in = new BufferedInputStream(stream);
+		byte[] magic = new byte[BinaryLogHandler.MAGIC.length];
+		readFully(magic, magic.length);
+		if (!Arrays.equals(magic, BinaryLogHandler.MAGIC)) {
+			throw new IOException("Not a binary log");
+		}
+		int version = readVarint();
+		if (version != BinaryLogHandler.VERSION) {
+			throw new IOException("Unsupported binary log version " + version);
+		}
+		// Make sure the custom levels are registered, so they can be found by name
+		Level.TRACE.getName();
+	}
+	/**
+	 * Decode the next record
+	 *
+	 * @return the next record, or <code>null</code> at the end of the log (including a record cut
+	 *         off part way through)
+	 * @throws IOException
+	 *         if the stream can't be read or holds something that isn't a binary log entry
+	 */
+	public LogRecord next() throws IOException {
+		try {
+			while (true) {
+				int tag = in.read();
+				if (tag < 0) {
+					return null;
+				}
+				switch (tag) {
+					case BinaryLogHandler.TAG_LEVEL: {
+						int value = unzigzag(readVarint());
+						String name = readString();
+						levels.put(value, level(name, value));
+						break;
+					}
+					case BinaryLogHandler.TAG_LOGGER: {
+						int id = readVarint();
+						loggers.put(id, readString());
+						break;
+					}
+					case BinaryLogHandler.TAG_TEMPLATE: {
+						int id = readVarint();
+						templates.put(id, readString());
+						break;
+					}
+					case BinaryLogHandler.TAG_RECORD:
+						return readRecord();
+					default:
+						throw new IOException("Unknown binary log entry tag " + tag);
+				}
+			}
+		}
+		catch (EOFException e) {
+			// Truncated last entry
+			return null;
+		}
+	}
+	/**
+	 * Decode every remaining record and render it with the given formatter
+	 *
+	 * @param out
+	 *        where to write the rendered records
+	 * @param fmt
+	 *        the formatter to render with
+	 * @return the number of records rendered
+	 * @throws IOException
+	 *         if the log can't be read or the output can't be written
+	 */
+	public long renderTo(Appendable out, MagicFormatter fmt) throws IOException {
+		long count = 0;
+		LogRecord rec;
+		while ( (rec = next()) != null) {
+			fmt.formatTo(rec, out);
+			++count;
+		}
+		return count;
+	}
+	/**
+	 * Decode every remaining record and render it with a {@link MagicFormatter} using the given
+	 * format string and the default delimiter
+	 *
+	 * @param out
+	 *        where to write the rendered records
+	 * @param format
+	 *        the format string to render with
+	 * @return the number of records rendered
+	 * @throws IOException
+	 *         if the log can't be read or the output can't be written
+	 */
+	public long renderTo(Appendable out, String format) throws IOException {
+		return renderTo(out, new MagicFormatter(format));
+	}
+	/**
+	 * Close the underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+	// The int thread ID and millisecond setters are deprecated, but their replacements don't exist
+	// on every JVM this runs on
+	@SuppressWarnings("deprecation")
+	protected LogRecord readRecord() throws IOException {
+		int value = unzigzag(readVarint());
+		int thread = readVarint();
+		long nanos = lastNanos + unzigzag(readVarlong());
+		lastNanos = nanos;
+		int logger = readVarint();
+		int flags = readByte();
+		java.util.logging.Level level = levels.get(value);
+		if (level == null) {
+			level = level(String.valueOf(value), value);
+			levels.put(value, level);
+		}
+		LogRecord rec;
+		if ( (flags & BinaryLogHandler.FLAG_TEMPLATE) != 0) {
+			int id = readVarint();
+			int argc = readVarint();
+			Object[] args = new Object[argc];
+			for (int i = 0; i < argc; ++i) {
+				args[i] = readString();
+			}
+			rec = new LogRecord(level, templates.get(id));
+			rec.setParameters(args);
+		}
+		else {
+			rec = new LogRecord(level, readString());
+		}
+		if ( (flags & BinaryLogHandler.FLAG_THROWN) != 0) {
+			rec.setThrown(new DecodedThrowable(readString()));
+		}
+		rec.setThreadID(thread);
+		rec.setMillis(Math.floorDiv(nanos, 1000000L));
+		rec.setLoggerName(logger == 0 ? null : loggers.get(logger));
+		// Stop the record from trying to work out its caller from the decoder's stack
+		rec.setSourceClassName(null);
+		rec.setSourceMethodName(null);
+		return rec;
+	}
+	protected static java.util.logging.Level level(String name, int value) {
+		try {
+			java.util.logging.Level known = java.util.logging.Level.parse(name);
+			if (known.intValue() == value) {
+				return known;
+			}
+		}
+		catch (IllegalArgumentException e) {
+			// Not a level this JVM knows about
+		}
+		return new DecodedLevel(name, value);
+	}
+	protected static int unzigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+	protected static long unzigzag(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+	protected int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+	protected int readVarint() throws IOException {
+		int n = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			n |= (b & 0x7F) << shift;
+			if ( (b & 0x80) == 0) {
+				return n;
+			}
+		}
+		throw new IOException("Malformed varint in binary log");
+	}
+	protected long readVarlong() throws IOException {
+		long n = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = readByte();
+			n |= (long) (b & 0x7F) << shift;
+			if ( (b & 0x80) == 0) {
+				return n;
+			}
+		}
+		throw new IOException("Malformed varint in binary log");
+	}
+	protected String readString() throws IOException {
+		int len = readVarint();
+		if (len < 0) {
+			throw new IOException("Malformed string length in binary log");
+		}
+		if (scratch.length < len) {
+			scratch = new byte[len];
+		}
+		readFully(scratch, len);
+		return new String(scratch, 0, len, StandardCharsets.UTF_8);
+	}
+	protected void readFully(byte[] into, int len) throws IOException {
+		int got = 0;
+		while (got < len) {
+			int n = in.read(into, got, len - got);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			got += n;
+		}
+	}
+}
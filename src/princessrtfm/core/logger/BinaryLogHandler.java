@@ -0,0 +1,282 @@
+package princessrtfm.core.logger;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+
+/**
+ * A {@link Handler} that skips text formatting entirely and writes each record as a compact,
+ * varint-packed binary entry. Logs that are never read never pay for formatting; the ones that
+ * are can be turned back into text with {@link BinaryLogDecoder}, using any {@link MagicFormatter}
+ * format string.<br/>
+ * <br/>
+ * The stream starts with {@link #MAGIC} and {@link #VERSION}, followed by entries. Each entry is
+ * a tag byte and then:
+ * <dl>
+ * <dt>{@link #TAG_LEVEL}</dt>
+ * <dd>level value (zigzag varint), level name (string)</dd>
+ * <dt>{@link #TAG_LOGGER}</dt>
+ * <dd>logger id (varint), logger name (string)</dd>
+ * <dt>{@link #TAG_TEMPLATE}</dt>
+ * <dd>template id (varint), message template (string)</dd>
+ * <dt>{@link #TAG_RECORD}</dt>
+ * <dd>level value (zigzag varint), thread id (varint), epoch nanoseconds as a difference from the
+ * previous record (zigzag varlong), logger id (varint, <tt>0</tt> for none), flags (byte), then
+ * either the message (string) or, if {@link #FLAG_TEMPLATE} is set, a template id (varint), an
+ * argument count (varint) and that many arguments (strings), then, if {@link #FLAG_THROWN} is set,
+ * the exception (string)</dd>
+ * </dl>
+ * Strings are a varint byte count followed by UTF-8. Level, logger and template definitions are
+ * written once per stream, the first time each is used. Templates are the messages of records
+ * that have parameters, as used by {@link java.util.logging.Logger#log(java.util.logging.Level,
+ * String, Object[])}.
+ *
+ * @see BinaryLogDecoder
+ */
+public class BinaryLogHandler extends Handler {
+	/**
+	 * The bytes at the start of every binary log
+	 */
+	public static final byte[] MAGIC = { 'C', 'C', 'B', 'L' };
+	/**
+	 * The version of the binary log format written by this class
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * Tag for an entry defining the name of a level value
+	 */
+	public static final int TAG_LEVEL = 1;
+	/**
+	 * Tag for an entry defining the name of a logger id
+	 */
+	public static final int TAG_LOGGER = 2;
+	/**
+	 * Tag for an entry defining the message of a template id
+	 */
+	public static final int TAG_TEMPLATE = 3;
+	/**
+	 * Tag for an entry holding a log record
+	 */
+	public static final int TAG_RECORD = 4;
+	/**
+	 * Record flag indicating that the message is a template id with arguments
+	 */
+	public static final int FLAG_TEMPLATE = 1;
+	/**
+	 * Record flag indicating that an exception follows the message
+	 */
+	public static final int FLAG_THROWN = 2;
+	protected final OutputStream out;
+	protected byte[] buf = new byte[8192];
+	protected int used = 0;
+	protected final Map<Integer, String> levels = new HashMap<Integer, String>();
+	protected final Map<String, Integer> loggers = new HashMap<String, Integer>();
+	protected final Map<String, Integer> templates = new HashMap<String, Integer>();
+	protected long lastNanos = 0;
+	protected boolean closed = false;
+	/**
+	 * Write binary records to the given stream, starting with the header
+	 *
+	 * @param stream
+	 *        where to write the binary log
+	 * @throws IOException
+	 *         if the header can't be written
+	 */
+	public BinaryLogHandler(OutputStream stream) throws IOException {
+		super();
+		out = stream;
+		put(MAGIC, 0, MAGIC.length);
+		putVarint(VERSION);
+		drain();
+	}
+	/**
+	 * Encode a record and add it to the output buffer
+	 */
+	// LogRecord's int thread ID is deprecated, but the long version doesn't exist before Java 16
+	@SuppressWarnings("deprecation")
+	@Override
+	public synchronized void publish(LogRecord rec) {
+		if (closed || !isLoggable(rec)) {
+			return;
+		}
+		// Where to roll back to if the record can't be encoded, so a half written entry (or an id
+		// definition that never made it out) can't corrupt the rest of the log
+		int start = used;
+		long startNanos = lastNanos;
+		Integer newLevel = null;
+		String newLogger = null;
+		String newTemplate = null;
+		try {
+			int level = rec.getLevel().intValue();
+			if (!levels.containsKey(level)) {
+				newLevel = level;
+				levels.put(level, rec.getLevel().getName());
+				putByte(TAG_LEVEL);
+				putVarint(zigzag(level));
+				putString(rec.getLevel().getName());
+			}
+			int logger = 0;
+			if (rec.getLoggerName() != null) {
+				Integer id = loggers.get(rec.getLoggerName());
+				if (id == null) {
+					id = loggers.size() + 1;
+					newLogger = rec.getLoggerName();
+					loggers.put(newLogger, id);
+					putByte(TAG_LOGGER);
+					putVarint(id);
+					putString(rec.getLoggerName());
+				}
+				logger = id;
+			}
+			Object[] args = rec.getParameters();
+			boolean isTemplate = args != null && rec.getMessage() != null;
+			int template = 0;
+			if (isTemplate) {
+				Integer id = templates.get(rec.getMessage());
+				if (id == null) {
+					id = templates.size() + 1;
+					newTemplate = rec.getMessage();
+					templates.put(newTemplate, id);
+					putByte(TAG_TEMPLATE);
+					putVarint(id);
+					putString(rec.getMessage());
+				}
+				template = id;
+			}
+			long nanos = rec.getMillis() * 1000000L;
+			putByte(TAG_RECORD);
+			putVarint(zigzag(level));
+			putVarint(rec.getThreadID());
+			putVarlong(zigzag(nanos - lastNanos));
+			lastNanos = nanos;
+			putVarint(logger);
+			putByte( (isTemplate ? FLAG_TEMPLATE : 0) | (rec.getThrown() != null ? FLAG_THROWN : 0));
+			if (isTemplate) {
+				putVarint(template);
+				putVarint(args.length);
+				for (Object arg : args) {
+					putString(String.valueOf(arg));
+				}
+			}
+			else {
+				putString(rec.getMessage() == null ? "" : rec.getMessage());
+			}
+			if (rec.getThrown() != null) {
+				putString(rec.getThrown().toString());
+			}
+			if (used >= 8192) {
+				drain();
+			}
+		}
+		catch (IOException e) {
+			reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+		catch (RuntimeException e) {
+			// Most likely an argument's or the exception's toString() throwing
+			used = start;
+			lastNanos = startNanos;
+			if (newLevel != null) {
+				levels.remove(newLevel);
+			}
+			if (newLogger != null) {
+				loggers.remove(newLogger);
+			}
+			if (newTemplate != null) {
+				templates.remove(newTemplate);
+			}
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+		}
+	}
+	/**
+	 * Write out the buffered records and flush the stream
+	 */
+	@Override
+	public synchronized void flush() {
+		if (closed) {
+			return;
+		}
+		try {
+			drain();
+			out.flush();
+		}
+		catch (IOException e) {
+			reportError(null, e, ErrorManager.FLUSH_FAILURE);
+		}
+	}
+	/**
+	 * Write out the buffered records and close the stream
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		flush();
+		closed = true;
+		try {
+			out.close();
+		}
+		catch (IOException e) {
+			reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+	protected static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+	protected static long zigzag(long n) {
+		return (n << 1) ^ (n >> 63);
+	}
+	protected void drain() throws IOException {
+		out.write(buf, 0, used);
+		used = 0;
+		if (buf.length > RecordEncoder.MAX_RETAINED) {
+			buf = new byte[8192];
+		}
+	}
+	protected void ensure(int more) {
+		if (used + more > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, used + more));
+		}
+	}
+	protected void putByte(int b) {
+		ensure(1);
+		buf[used++] = (byte) b;
+	}
+	protected void put(byte[] bytes, int off, int len) {
+		ensure(len);
+		System.arraycopy(bytes, off, buf, used, len);
+		used += len;
+	}
+	protected void putVarint(int n) {
+		ensure(5);
+		while ( (n & ~0x7F) != 0) {
+			buf[used++] = (byte) ( (n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		buf[used++] = (byte) n;
+	}
+	protected void putVarlong(long n) {
+		ensure(10);
+		while ( (n & ~0x7FL) != 0) {
+			buf[used++] = (byte) ( (n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		buf[used++] = (byte) n;
+	}
+	protected void putString(String s) {
+		ByteBuffer utf8 = RecordEncoder.get().encode(s);
+		int len = utf8.remaining();
+		putVarint(len);
+		ensure(len);
+		utf8.get(buf, used, len);
+		used += len;
+	}
+}
@@ -0,0 +1,188 @@
+package princessrtfm.core.logger;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+
+/**
+ * A {@link Handler} that writes records to a {@link WritableByteChannel} (a file, socket, pipe,
+ * and so on). Each record is formatted into the calling thread's reusable character buffer and
+ * encoded as UTF-8 directly into a pooled direct {@link ByteBuffer}, which is handed straight to
+ * the channel: there's no {@link java.io.Writer}, no charset encoder, and no per-record byte array,
+ * and channels backed by the OS can write a direct buffer without copying it again.<br/>
+ * <br/>
+ * Records too big for a pooled buffer are still written, through a heap buffer.
+ */
+public class ChannelHandler extends Handler {
+	/**
+	 * The default size, in bytes, of each pooled buffer
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+	/**
+	 * The default number of idle buffers kept in the pool
+	 */
+	public static final int DEFAULT_POOLED = 16;
+	protected final WritableByteChannel channel;
+	protected final DirectBufferPool pool;
+	protected final boolean closeChannel;
+	protected boolean wroteHead = false;
+	protected boolean closed = false;
+	/**
+	 * Create a handler writing to <tt>System.err</tt>, which is left open when the handler is
+	 * closed
+	 */
+	public ChannelHandler() {
+		this(Channels.newChannel(System.err), DEFAULT_BUFFER_SIZE, DEFAULT_POOLED, false);
+	}
+	/**
+	 * Create a handler writing to a channel with the default buffer size, closing the channel when
+	 * the handler is closed
+	 *
+	 * @param out
+	 *        the channel to write to
+	 */
+	public ChannelHandler(WritableByteChannel out) {
+		this(out, DEFAULT_BUFFER_SIZE, DEFAULT_POOLED, true);
+	}
+	/**
+	 * Create a handler writing to a channel
+	 *
+	 * @param out
+	 *        the channel to write to
+	 * @param bufferSize
+	 *        the size, in bytes, of each pooled buffer; records bigger than this (once encoded)
+	 *        take a slower path
+	 * @param pooled
+	 *        the most idle buffers to keep
+	 * @param closeOut
+	 *        whether to close the channel when the handler is closed
+	 */
+	public ChannelHandler(WritableByteChannel out, int bufferSize, int pooled, boolean closeOut) {
+		super();
+		if (out == null) {
+			throw new NullPointerException("Channel must not be null");
+		}
+		channel = out;
+		pool = new DirectBufferPool(bufferSize, pooled);
+		closeChannel = closeOut;
+		setFormatter(new MagicFormatter());
+	}
+	/**
+	 * Format and encode a record on the calling thread, then write it to the channel
+	 */
+	@Override
+	public void publish(LogRecord rec) {
+		if (!isLoggable(rec)) {
+			return;
+		}
+		RecordEncoder encoder = RecordEncoder.get();
+		CharSequence text;
+		try {
+			text = encoder.format(getFormatter(), rec);
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		ByteBuffer buf = pool.acquire();
+		try {
+			if (RecordEncoder.encodeUTF8(text, buf)) {
+				buf.flip();
+				write(buf);
+			}
+			else {
+				write(encoder.encode(text));
+			}
+		}
+		finally {
+			pool.release(buf);
+			encoder.release();
+		}
+	}
+	/**
+	 * Nothing is buffered, so this only matters for channels that buffer internally, which are
+	 * flushed if they're also {@link java.io.Flushable}
+	 */
+	@Override
+	public void flush() {
+		if (channel instanceof java.io.Flushable) {
+			try {
+				((java.io.Flushable) channel).flush();
+			}
+			catch (IOException e) {
+				reportError(null, e, ErrorManager.FLUSH_FAILURE);
+			}
+		}
+	}
+	/**
+	 * Write the formatter's tail, if anything was written, and close the channel if the handler
+	 * owns it
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		Formatter fmt = getFormatter();
+		if (wroteHead && fmt != null) {
+			writeText(fmt.getTail(this));
+		}
+		closed = true;
+		try {
+			if (closeChannel) {
+				channel.close();
+			}
+		}
+		catch (IOException e) {
+			reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+	/**
+	 * Write encoded bytes to the channel, writing the formatter's head first if this is the first
+	 * record
+	 *
+	 * @param buf
+	 *        the bytes to write
+	 */
+	protected synchronized void write(ByteBuffer buf) {
+		if (closed) {
+			return;
+		}
+		if (!wroteHead) {
+			wroteHead = true;
+			Formatter fmt = getFormatter();
+			if (fmt != null) {
+				writeText(fmt.getHead(this));
+			}
+		}
+		try {
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+		}
+		catch (IOException e) {
+			reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+	protected synchronized void writeText(String text) {
+		if (text == null || text.isEmpty()) {
+			return;
+		}
+		try {
+			ByteBuffer buf = RecordEncoder.get().encode(text);
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+		}
+		catch (IOException e) {
+			reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package princessrtfm.core.logger;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * A small pool of equally sized direct {@link ByteBuffer}s. Direct buffers are expensive to
+ * create and are only freed when they're garbage collected, so they're worth keeping around;
+ * buffers beyond what the pool holds are simply left for the collector when they're returned.
+ */
+final class DirectBufferPool {
+	/**
+	 * The size, in bytes, of each pooled buffer
+	 */
+	final int bufferSize;
+	private final BlockingQueue<ByteBuffer> free;
+	/**
+	 * @param size
+	 *        the size, in bytes, of each buffer
+	 * @param retained
+	 *        the most idle buffers to keep
+	 */
+	DirectBufferPool(int size, int retained) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Buffer size must be positive, got " + size);
+		}
+		bufferSize = size;
+		free = new ArrayBlockingQueue<ByteBuffer>(Math.max(1, retained));
+	}
+	/**
+	 * @return a cleared buffer, from the pool if there's one idle
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer buf = free.poll();
+		if (buf == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		buf.clear();
+		return buf;
+	}
+	/**
+	 * Hand a buffer back to the pool; it mustn't be used again by the caller
+	 *
+	 * @param buf
+	 *        a buffer from {@link #acquire()}
+	 */
+	void release(ByteBuffer buf) {
+		if (buf != null && buf.isDirect() && buf.capacity() == bufferSize) {
+			free.offer(buf);
+		}
+	}
+}
@@ -0,0 +1,458 @@
+package princessrtfm.core.logger;
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+
+/**
+ * A {@link Handler} that sends the same records to several outputs ("sinks") without letting a
+ * slow one hold up the rest. Each record is formatted once, on the logging thread, and the text is
+ * offered to every sink's own bounded queue; each sink has its own background thread writing its
+ * queue out, and its own {@link Backpressure} policy for when that queue is full.<br/>
+ * <br/>
+ * Every sink keeps counts of what it has written and dropped, along with how far behind it is
+ * (see {@link Sink#getLagMillis()}), so a struggling output can be spotted.
+ */
+public class FanOutHandler extends Handler {
+	/**
+	 * What a sink does with new records when it's falling behind
+	 */
+	public static enum Backpressure {
+		/**
+		 * Make the logging thread wait until there's room in the queue, which holds up the other
+		 * sinks too
+		 */
+		BLOCK,
+		/**
+		 * Throw away new records while the queue is full
+		 */
+		DROP,
+		/**
+		 * Once the queue is half full, keep only one in every so many new records (see
+		 * {@link Sink#setSampleOneIn(int)}), and throw away new records while it's full
+		 */
+		SAMPLE;
+	}
+	/**
+	 * One output of a {@link FanOutHandler}, with its own queue and background thread
+	 */
+	public final class Sink {
+		protected final String name;
+		protected final OutputStream stream;
+		protected final Writer writer;
+		protected final BlockingQueue<Entry> queue;
+		protected final int capacity;
+		protected final Backpressure policy;
+		protected final Thread consumer;
+		protected final AtomicLong accepted = new AtomicLong();
+		protected final AtomicLong written = new AtomicLong();
+		protected final AtomicLong dropped = new AtomicLong();
+		protected final AtomicLong offered = new AtomicLong();
+		protected volatile int sampleOneIn = DEFAULT_SAMPLE_ONE_IN;
+		protected volatile long maxLagNanos = 0;
+		protected volatile boolean closed = false;
+		/**
+		 * Set by {@link #close()} once the consumer has gone, just before it writes what's left in
+		 * the queue itself
+		 */
+		protected volatile boolean finished = false;
+		protected boolean wroteHead = false;
+		protected Sink(String label, OutputStream out, int size, Backpressure overflow) {
+			if (size < 1) {
+				throw new IllegalArgumentException("Capacity must be positive, got " + size);
+			}
+			name = label;
+			stream = out;
+			writer = new BufferedWriter(new OutputStreamWriter(out));
+			capacity = size;
+			queue = new ArrayBlockingQueue<Entry>(size);
+			policy = overflow == null ? DEFAULT_BACKPRESSURE : overflow;
+			consumer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					consume();
+				}
+			}, "FanOutHandler-" + label);
+			consumer.setDaemon(true);
+		}
+		/**
+		 * @return the name given when this sink was added
+		 */
+		public String getName() {
+			return name;
+		}
+		/**
+		 * @return this sink's backpressure policy
+		 */
+		public Backpressure getBackpressure() {
+			return policy;
+		}
+		/**
+		 * @return the number of records this sink's queue can hold
+		 */
+		public int getCapacity() {
+			return capacity;
+		}
+		/**
+		 * @return the number of records waiting to be written
+		 */
+		public int getQueued() {
+			return queue.size();
+		}
+		/**
+		 * @return the number of records written so far
+		 */
+		public long getWritten() {
+			return written.get();
+		}
+		/**
+		 * @return the number of records thrown away so far, whether because the queue was full,
+		 *         by sampling, or because the handler was closed
+		 */
+		public long getDropped() {
+			return dropped.get();
+		}
+		/**
+		 * @return how long, in milliseconds, the oldest record still waiting has been queued, or
+		 *         <tt>0</tt> if the queue is empty
+		 */
+		public long getLagMillis() {
+			Entry oldest = queue.peek();
+			return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(Math.max(0, System.nanoTime() - oldest.queued));
+		}
+		/**
+		 * @return the longest time, in milliseconds, any record has waited in the queue before being
+		 *         written
+		 */
+		public long getMaxLagMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+		}
+		/**
+		 * @return under {@link Backpressure#SAMPLE}, how many records arriving while the queue is
+		 *         at least half full are needed for one to be kept
+		 */
+		public int getSampleOneIn() {
+			return sampleOneIn;
+		}
+		/**
+		 * @param oneIn
+		 *        under {@link Backpressure#SAMPLE}, keep one in every this many records arriving
+		 *        while the queue is at least half full
+		 */
+		public void setSampleOneIn(int oneIn) {
+			sampleOneIn = Math.max(1, oneIn);
+		}
+		/**
+		 * Queue some formatted text, according to this sink's policy
+		 *
+		 * @param text
+		 *        the formatted record
+		 */
+		protected void offer(String text) {
+			if (closed) {
+				drop();
+				return;
+			}
+			Entry entry = new Entry(text, System.nanoTime());
+			switch (policy) {
+				case BLOCK:
+					boolean interrupted = false;
+					boolean queued = false;
+					// Checks for closing now and then, so a close() can't leave this waiting forever
+					while (!queued && !closed) {
+						try {
+							queued = queue.offer(entry, 100, TimeUnit.MILLISECONDS);
+						}
+						catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+					if (queued) {
+						queued(entry);
+					}
+					else {
+						drop();
+					}
+					if (interrupted) {
+						Thread.currentThread().interrupt();
+					}
+					return;
+				case SAMPLE:
+					if (queue.size() >= capacity / 2 && offered.getAndIncrement() % sampleOneIn != 0) {
+						drop();
+						return;
+					}
+					break;
+				case DROP:
+					break;
+			}
+			if (queue.offer(entry)) {
+				queued(entry);
+			}
+			else {
+				drop();
+			}
+		}
+		/**
+		 * Count a record that made it into the queue, unless it got there too late for anything to
+		 * write it
+		 *
+		 * @param entry
+		 *        the record that was queued
+		 */
+		protected void queued(Entry entry) {
+			accepted.incrementAndGet();
+			// If close() has already taken what was left in the queue, this would sit there forever;
+			// whichever of this and close() removes it first decides whether it's written or dropped
+			if (finished && queue.remove(entry)) {
+				accepted.decrementAndGet();
+				drop();
+			}
+		}
+		protected void drop() {
+			dropped.incrementAndGet();
+			LogMetrics.GLOBAL.dropped();
+		}
+		/**
+		 * The body of the background thread: take everything queued, write it, then flush once
+		 * per batch
+		 */
+		protected void consume() {
+			List<Entry> batch = new ArrayList<Entry>(Math.min(capacity, 1024));
+			while (true) {
+				Entry first;
+				try {
+					first = queue.poll(100, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e) {
+					first = null;
+				}
+				if (first == null) {
+					if (closed && queue.isEmpty()) {
+						return;
+					}
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, 1023);
+				long now = System.nanoTime();
+				for (Entry entry : batch) {
+					long lag = now - entry.queued;
+					if (lag > maxLagNanos) {
+						maxLagNanos = lag;
+					}
+					write(entry.text);
+				}
+				try {
+					writer.flush();
+				}
+				catch (IOException e) {
+					reportError(name, e, ErrorManager.FLUSH_FAILURE);
+				}
+				written.addAndGet(batch.size());
+				batch.clear();
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+		protected void write(String text) {
+			try {
+				if (!wroteHead) {
+					wroteHead = true;
+					Formatter fmt = getFormatter();
+					if (fmt != null) {
+						writer.write(fmt.getHead(FanOutHandler.this));
+					}
+				}
+				writer.write(text);
+			}
+			catch (Exception e) {
+				reportError(name, e, ErrorManager.WRITE_FAILURE);
+			}
+		}
+		/**
+		 * Wait until everything accepted so far has been written
+		 */
+		protected synchronized void drain() {
+			boolean interrupted = false;
+			while (written.get() < accepted.get() && consumer.isAlive()) {
+				try {
+					wait(100);
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		protected void close() {
+			closed = true;
+			boolean interrupted = false;
+			while (consumer.isAlive()) {
+				try {
+					consumer.join();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			// A record can be queued between the consumer's last look and it exiting, so anything
+			// still there is written here instead
+			finished = true;
+			Entry left;
+			while ( (left = queue.poll()) != null) {
+				write(left.text);
+				written.incrementAndGet();
+			}
+			try {
+				Formatter fmt = getFormatter();
+				if (wroteHead && fmt != null) {
+					writer.write(fmt.getTail(FanOutHandler.this));
+				}
+				writer.flush();
+				if (stream != System.err && stream != System.out) {
+					writer.close();
+				}
+			}
+			catch (Exception e) {
+				reportError(name, e, ErrorManager.CLOSE_FAILURE);
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	protected static final class Entry {
+		protected final String text;
+		protected final long queued;
+		protected Entry(String t, long at) {
+			text = t;
+			queued = at;
+		}
+	}
+	/**
+	 * The default number of records each sink's queue can hold
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+	/**
+	 * The default backpressure policy for sinks
+	 */
+	public static final Backpressure DEFAULT_BACKPRESSURE = Backpressure.BLOCK;
+	/**
+	 * The default sampling rate under {@link Backpressure#SAMPLE}
+	 */
+	public static final int DEFAULT_SAMPLE_ONE_IN = 10;
+	protected final List<Sink> sinks = new CopyOnWriteArrayList<Sink>();
+	protected volatile boolean closed = false;
+	/**
+	 * Create a handler with no sinks, using a {@link MagicFormatter}
+	 */
+	public FanOutHandler() {
+		super();
+		setFormatter(new MagicFormatter());
+	}
+	/**
+	 * Add a sink with the default capacity and backpressure policy
+	 *
+	 * @param name
+	 *        a name for the sink, used for its thread and in error reports
+	 * @param out
+	 *        the stream to write formatted records to
+	 * @return the new sink
+	 */
+	public Sink addSink(String name, OutputStream out) {
+		return addSink(name, out, DEFAULT_CAPACITY, DEFAULT_BACKPRESSURE);
+	}
+	/**
+	 * Add a sink
+	 *
+	 * @param name
+	 *        a name for the sink, used for its thread and in error reports
+	 * @param out
+	 *        the stream to write formatted records to
+	 * @param capacity
+	 *        the number of records the sink's queue can hold
+	 * @param policy
+	 *        what to do with new records when the sink is falling behind
+	 * @return the new sink
+	 * @throws IllegalStateException
+	 *         if this handler has been closed
+	 */
+	public Sink addSink(String name, OutputStream out, int capacity, Backpressure policy) {
+		if (closed) {
+			throw new IllegalStateException("Handler is closed");
+		}
+		Sink sink = new Sink(name, out, capacity, policy);
+		sinks.add(sink);
+		sink.consumer.start();
+		return sink;
+	}
+	/**
+	 * @return the sinks, in the order they were added
+	 */
+	public List<Sink> getSinks() {
+		return Collections.unmodifiableList(sinks);
+	}
+	/**
+	 * Format a record on the calling thread and queue the text for every sink
+	 */
+	@Override
+	public void publish(LogRecord rec) {
+		if (closed || sinks.isEmpty() || !isLoggable(rec)) {
+			return;
+		}
+		String text;
+		try {
+			text = getFormatter().format(rec);
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		for (Sink sink : sinks) {
+			sink.offer(text);
+		}
+	}
+	/**
+	 * Wait for every sink to write out everything it has queued
+	 */
+	@Override
+	public void flush() {
+		for (Sink sink : sinks) {
+			sink.drain();
+		}
+	}
+	/**
+	 * Stop accepting records, let every sink write out what it has queued, and close their
+	 * streams (except <tt>System.out</tt> and <tt>System.err</tt>, which are only flushed)
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (Sink sink : sinks) {
+			sink.close();
+		}
+	}
+}
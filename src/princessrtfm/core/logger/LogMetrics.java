@@ -0,0 +1,286 @@
+package princessrtfm.core.logger;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * Counters describing what logging is costing: records logged and formatted per level,
+ * characters formatted and bytes encoded, records dropped or suppressed, and how long formatting
+ * takes. All of the counters are {@link LongAdder}s, so updating them doesn't contend; formatting
+ * latency is only measured once it's been switched on with {@link #setTiming(boolean)} (or
+ * {@link #register()}), since that needs two extra clock reads per record. Reading the counters
+ * never switches it on.<br/>
+ * <br/>
+ * The numbers can be read with {@link #snapshot()} or, after {@link #register()}, over JMX as
+ * <tt>princessrtfm.core.logger:type=LogMetrics</tt>.
+ */
+public final class LogMetrics implements LogMetricsMBean {
+	/**
+	 * An immutable copy of the counters at one point in time
+	 */
+	public static final class Snapshot {
+		/**
+		 * The names of the levels, in the same order as the per-level counts
+		 */
+		public final String[] levelNames;
+		/**
+		 * Records logged through a {@link princessrtfm.core.util.UtilityLogger}, per level
+		 */
+		public final long[] logged;
+		/**
+		 * Records formatted by a {@link MagicFormatter}, per level
+		 */
+		public final long[] formatted;
+		/**
+		 * Characters produced by {@link MagicFormatter}s
+		 */
+		public final long formattedChars;
+		/**
+		 * Bytes produced by handlers that encode records themselves
+		 */
+		public final long encodedBytes;
+		/**
+		 * Records thrown away by handlers that were full
+		 */
+		public final long dropped;
+		/**
+		 * Messages suppressed by {@link LogThrottle}s
+		 */
+		public final long suppressed;
+		/**
+		 * Formatting calls by latency, as in {@link LogMetricsMBean#getFormatLatencyHistogram()}
+		 */
+		public final long[] latency;
+		/**
+		 * Total nanoseconds spent in timed formatting calls
+		 */
+		public final long formatNanos;
+		protected Snapshot(LogMetrics from) {
+			levelNames = LEVEL_NAMES.clone();
+			logged = sum(from.logged);
+			formatted = sum(from.formatted);
+			formattedChars = from.formattedChars.sum();
+			encodedBytes = from.encodedBytes.sum();
+			dropped = from.dropped.sum();
+			suppressed = from.suppressed.sum();
+			latency = sum(from.latency);
+			formatNanos = from.formatNanos.sum();
+		}
+		/**
+		 * @return the mean time, in nanoseconds, taken to format a record, or <tt>0</tt> if none
+		 *         were timed
+		 */
+		public double meanFormatNanos() {
+			long timed = 0;
+			for (long n : latency) {
+				timed += n;
+			}
+			return timed == 0 ? 0 : (double) formatNanos / timed;
+		}
+	}
+	/**
+	 * The JMX name used by {@link #register()}
+	 */
+	public static final String OBJECT_NAME = "princessrtfm.core.logger:type=LogMetrics";
+	protected static final String[] LEVEL_NAMES = { "FINEST", "FINER", "FINE", "TRACE", "CONFIG", "INFO", "WARNING", "SEVERE", "FATAL", "OTHER" };
+	// Has to come after LEVEL_NAMES, which the constructor needs
+	/**
+	 * The metrics shared by everything in ChaosCore's logging
+	 */
+	public static final LogMetrics GLOBAL = new LogMetrics();
+	protected final LongAdder[] logged = adders(LEVEL_NAMES.length);
+	protected final LongAdder[] formatted = adders(LEVEL_NAMES.length);
+	protected final LongAdder formattedChars = new LongAdder();
+	protected final LongAdder encodedBytes = new LongAdder();
+	protected final LongAdder dropped = new LongAdder();
+	protected final LongAdder suppressed = new LongAdder();
+	protected final LongAdder[] latency = adders(64);
+	protected final LongAdder formatNanos = new LongAdder();
+	protected volatile boolean timing = false;
+	private LogMetrics() {}
+	/**
+	 * Register {@link #GLOBAL} with the platform MBean server, if it isn't already, and start
+	 * timing formatting calls
+	 *
+	 * @throws JMException
+	 *         if the MBean can't be registered
+	 */
+	public static synchronized void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (!server.isRegistered(name)) {
+			server.registerMBean(GLOBAL, name);
+		}
+		GLOBAL.setTiming(true);
+	}
+	/**
+	 * Copy the current values of every counter
+	 *
+	 * @return the copy
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+	/**
+	 * @param level
+	 *        a logging level
+	 * @return the index of the counter for that level
+	 */
+	protected static int index(java.util.logging.Level level) {
+		switch (level.intValue()) {
+			case 300:
+				return 0;
+			case 400:
+				return 1;
+			case 500:
+				return 2;
+			case 600:
+				return 3;
+			case 700:
+				return 4;
+			case 800:
+				return 5;
+			case 900:
+				return 6;
+			case 1000:
+				return 7;
+			case Integer.MAX_VALUE:
+				return 8;
+			default:
+				return 9;
+		}
+	}
+	/**
+	 * Count a record logged through a {@link princessrtfm.core.util.UtilityLogger}
+	 *
+	 * @param level
+	 *        the level of the record
+	 */
+	public void logged(java.util.logging.Level level) {
+		logged[index(level)].increment();
+	}
+	/**
+	 * @return the time to pass to {@link #formatted(java.util.logging.Level, int, long)}, or
+	 *         <tt>0</tt> if formatting isn't being timed
+	 */
+	public long startFormat() {
+		return timing ? System.nanoTime() : 0;
+	}
+	/**
+	 * Count a formatted record
+	 *
+	 * @param level
+	 *        the level of the record
+	 * @param chars
+	 *        how many characters it was formatted into
+	 * @param started
+	 *        the value returned by {@link #startFormat()} before formatting it
+	 */
+	public void formatted(java.util.logging.Level level, int chars, long started) {
+		formatted[index(level)].increment();
+		formattedChars.add(chars);
+		if (started != 0) {
+			long took = Math.max(0, System.nanoTime() - started);
+			latency[Math.min(63, 64 - Long.numberOfLeadingZeros(took))].increment();
+			formatNanos.add(took);
+		}
+	}
+	/**
+	 * Count bytes encoded by a handler
+	 *
+	 * @param bytes
+	 *        how many bytes were produced
+	 */
+	public void encoded(int bytes) {
+		encodedBytes.add(bytes);
+	}
+	/**
+	 * Count a record thrown away by a full handler
+	 */
+	public void dropped() {
+		dropped.increment();
+	}
+	/**
+	 * Count a message suppressed by a {@link LogThrottle}
+	 */
+	public void suppressed() {
+		suppressed.increment();
+	}
+	@Override
+	public String[] getLevelNames() {
+		return LEVEL_NAMES.clone();
+	}
+	@Override
+	public long[] getLoggedByLevel() {
+		return snapshot().logged;
+	}
+	@Override
+	public long[] getFormattedByLevel() {
+		return snapshot().formatted;
+	}
+	@Override
+	public long getFormattedChars() {
+		return formattedChars.sum();
+	}
+	@Override
+	public long getEncodedBytes() {
+		return encodedBytes.sum();
+	}
+	@Override
+	public long getDropped() {
+		return dropped.sum();
+	}
+	@Override
+	public long getSuppressed() {
+		return suppressed.sum();
+	}
+	@Override
+	public long[] getFormatLatencyHistogram() {
+		return snapshot().latency;
+	}
+	@Override
+	public double getMeanFormatNanos() {
+		return snapshot().meanFormatNanos();
+	}
+	@Override
+	public boolean isTiming() {
+		return timing;
+	}
+	@Override
+	public void setTiming(boolean enabled) {
+		timing = enabled;
+	}
+	@Override
+	public void reset() {
+		for (LongAdder[] group : new LongAdder[][] { logged, formatted, latency }) {
+			for (LongAdder adder : group) {
+				adder.reset();
+			}
+		}
+		formattedChars.reset();
+		encodedBytes.reset();
+		dropped.reset();
+		suppressed.reset();
+		formatNanos.reset();
+	}
+	protected static LongAdder[] adders(int count) {
+		LongAdder[] made = new LongAdder[count];
+		for (int i = 0; i < count; ++i) {
+			made[i] = new LongAdder();
+		}
+		return made;
+	}
+	protected static long[] sum(LongAdder[] adders) {
+		long[] sums = new long[adders.length];
+		for (int i = 0; i < adders.length; ++i) {
+			sums[i] = adders[i].sum();
+		}
+		return sums;
+	}
+}
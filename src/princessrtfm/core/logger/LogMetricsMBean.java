@@ -0,0 +1,63 @@
+package princessrtfm.core.logger;
+
+
+/**
+ * The JMX management interface of {@link LogMetrics}
+ *
+ * @see LogMetrics#register()
+ */
+public interface LogMetricsMBean {
+	/**
+	 * @return the names of the levels that records are counted under, in the same order as the
+	 *         per-level counts
+	 */
+	public String[] getLevelNames();
+	/**
+	 * @return the number of records logged through a {@link princessrtfm.core.util.UtilityLogger}
+	 *         at each level
+	 */
+	public long[] getLoggedByLevel();
+	/**
+	 * @return the number of records formatted by a {@link MagicFormatter} at each level
+	 */
+	public long[] getFormattedByLevel();
+	/**
+	 * @return the number of characters produced by {@link MagicFormatter}s
+	 */
+	public long getFormattedChars();
+	/**
+	 * @return the number of bytes produced by handlers that encode records themselves, such as
+	 *         {@link ChannelHandler} and {@link RollingFileHandler}
+	 */
+	public long getEncodedBytes();
+	/**
+	 * @return the number of records thrown away by handlers that were full
+	 */
+	public long getDropped();
+	/**
+	 * @return the number of messages suppressed by {@link LogThrottle}s
+	 */
+	public long getSuppressed();
+	/**
+	 * @return the number of formatting calls that took less than 2<sup>i</sup> nanoseconds (and
+	 *         at least 2<sup>i-1</sup>), for each index <tt>i</tt>
+	 */
+	public long[] getFormatLatencyHistogram();
+	/**
+	 * @return the mean time, in nanoseconds, taken to format a record
+	 */
+	public double getMeanFormatNanos();
+	/**
+	 * @return whether formatting calls are being timed
+	 */
+	public boolean isTiming();
+	/**
+	 * @param enabled
+	 *        whether formatting calls should be timed
+	 */
+	public void setTiming(boolean enabled);
+	/**
+	 * Set every counter back to zero
+	 */
+	public void reset();
+}
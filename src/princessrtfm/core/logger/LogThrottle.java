@@ -0,0 +1,291 @@
+package princessrtfm.core.logger;
+
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Sampling and rate limiting for log messages, tracked separately for each key. A key is whatever
+ * identifies "the same message" to the caller: a message template, a call site, a lambda's class,
+ * and so on.<br/>
+ * <br/>
+ * Each key gets a token bucket (implemented as a single atomic "next allowed time", so checking
+ * it is one compare-and-set) that allows a burst of messages and then a steady rate, and
+ * optionally keeps only one message in every so many. Messages that are turned away are counted,
+ * and {@link #schedule(Reporter, long)} reports those counts periodically so they can be logged
+ * as a summary. Nothing here ever blocks.<br/>
+ * <br/>
+ * Keys that haven't been seen for a while are forgotten once the throttle is tracking as many as
+ * it's allowed to. If every tracked key is still busy, messages with new keys share one bucket,
+ * reported as "<tt>other messages</tt>", so they're still throttled and counted.
+ *
+ * @see princessrtfm.core.util.UtilityLogger#setThrottle(LogThrottle)
+ */
+public class LogThrottle {
+	/**
+	 * Receives the periodic summary of suppressed messages
+	 */
+	public static interface Reporter {
+		/**
+		 * Called once per key that had messages suppressed since the last summary
+		 *
+		 * @param label
+		 *        a short description of the key
+		 * @param level
+		 *        the level of the most recently suppressed message
+		 * @param count
+		 *        the number of messages suppressed since the last summary
+		 */
+		public void suppressed(String label, java.util.logging.Level level, long count);
+	}
+	/**
+	 * The default maximum number of keys tracked separately; messages with new keys beyond this
+	 * share a single bucket
+	 */
+	public static final int DEFAULT_MAX_KEYS = 4096;
+	/**
+	 * The shortest time, in milliseconds, a key must go unused before it can be forgotten
+	 */
+	public static final long MIN_IDLE_MILLIS = 1000;
+	/**
+	 * The label reported for messages that had to share the overflow bucket
+	 */
+	public static final String OVERFLOW_LABEL = "other messages";
+	/**
+	 * The longest label passed to a {@link Reporter}
+	 */
+	public static final int MAX_LABEL = 80;
+	protected static final class Bucket {
+		protected final String label;
+		protected final AtomicLong nextAllowed;
+		protected final AtomicLong seen = new AtomicLong();
+		protected final AtomicLong suppressed = new AtomicLong();
+		protected volatile java.util.logging.Level level;
+		protected volatile long lastSeen;
+		protected Bucket(String desc, long now) {
+			label = desc;
+			nextAllowed = new AtomicLong(now);
+			lastSeen = now;
+		}
+	}
+	private static ScheduledExecutorService summaries;
+	protected final long intervalNanos;
+	protected final long toleranceNanos;
+	protected final int sampleOneIn;
+	protected final int maxKeys;
+	/**
+	 * How long a key must go unused before it can be forgotten; by then its bucket has refilled,
+	 * so forgetting it doesn't let any extra messages through
+	 */
+	protected final long idleNanos;
+	protected final Map<Object, Bucket> buckets = new ConcurrentHashMap<Object, Bucket>();
+	/**
+	 * Shared by every key that arrives while {@link #maxKeys} busy keys are already tracked
+	 */
+	protected final Bucket overflow = new Bucket(OVERFLOW_LABEL, System.nanoTime());
+	protected final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+	/**
+	 * Create a throttle allowing a burst of messages per key, then a steady rate, with no sampling
+	 *
+	 * @param perSecond
+	 *        the steady number of messages allowed per second for each key (<tt>0</tt> for no
+	 *        rate limit)
+	 * @param burst
+	 *        how many messages for each key may be logged back to back before the rate applies
+	 */
+	public LogThrottle(double perSecond, int burst) {
+		this(perSecond, burst, 1, DEFAULT_MAX_KEYS);
+	}
+	/**
+	 * Create a throttle
+	 *
+	 * @param perSecond
+	 *        the steady number of messages allowed per second for each key (<tt>0</tt> for no
+	 *        rate limit)
+	 * @param burst
+	 *        how many messages for each key may be logged back to back before the rate applies
+	 * @param oneIn
+	 *        keep only the first of every this many messages for each key (<tt>1</tt> to keep
+	 *        them all), before the rate limit is applied
+	 * @param keys
+	 *        the maximum number of keys to track separately
+	 */
+	public LogThrottle(double perSecond, int burst, int oneIn, int keys) {
+		if (perSecond < 0 || Double.isNaN(perSecond)) {
+			throw new IllegalArgumentException("Rate must not be negative, got " + perSecond);
+		}
+		intervalNanos = perSecond == 0 ? 0 : (long) Math.max(1, TimeUnit.SECONDS.toNanos(1) / perSecond);
+		toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+		sampleOneIn = Math.max(1, oneIn);
+		maxKeys = Math.max(0, keys);
+		idleNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(MIN_IDLE_MILLIS), toleranceNanos + intervalNanos);
+	}
+	/**
+	 * Decide whether a message should be logged
+	 *
+	 * @param key
+	 *        identifies which messages count as "the same"
+	 * @param level
+	 *        the level of the message
+	 * @return <code>true</code> if the message should be logged, <code>false</code> if it should
+	 *         be dropped (in which case it's counted towards the next summary)
+	 */
+	public boolean allow(Object key, java.util.logging.Level level) {
+		if (key == null) {
+			return true;
+		}
+		long now = System.nanoTime();
+		Bucket bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = track(key, now);
+		}
+		bucket.lastSeen = now;
+		if (sampleOneIn > 1 && bucket.seen.getAndIncrement() % sampleOneIn != 0) {
+			return suppress(bucket, level);
+		}
+		if (intervalNanos == 0) {
+			return true;
+		}
+		while (true) {
+			long next = bucket.nextAllowed.get();
+			long from = next - now > 0 ? next : now;
+			if (from - now > toleranceNanos) {
+				return suppress(bucket, level);
+			}
+			if (bucket.nextAllowed.compareAndSet(next, from + intervalNanos)) {
+				return true;
+			}
+		}
+	}
+	/**
+	 * Hand the suppressed message counts to the given reporter, and reset them
+	 *
+	 * @param to
+	 *        receives one call per key with suppressed messages
+	 */
+	public void summarize(Reporter to) {
+		for (Bucket bucket : buckets.values()) {
+			summarize(bucket, to);
+		}
+		summarize(overflow, to);
+	}
+	/**
+	 * Call {@link #summarize(Reporter)} periodically on a shared background thread
+	 *
+	 * @param to
+	 *        receives the summaries
+	 * @param periodMillis
+	 *        how often to summarize
+	 * @return the scheduled task, which should be cancelled when the summaries are no longer
+	 *         needed
+	 */
+	public ScheduledFuture<?> schedule(final Reporter to, long periodMillis) {
+		return summaries().scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				summarize(to);
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * Forget every key, and any suppressed counts not yet summarized
+	 */
+	public void clear() {
+		buckets.clear();
+		overflow.suppressed.set(0);
+	}
+	/**
+	 * @return the number of keys currently tracked separately
+	 */
+	public int size() {
+		return buckets.size();
+	}
+	/**
+	 * Find or make the bucket for a key that wasn't tracked a moment ago, forgetting idle keys to
+	 * make room if necessary
+	 *
+	 * @param key
+	 *        the new key
+	 * @param now
+	 *        the current {@link System#nanoTime()}
+	 * @return the key's bucket, or the overflow bucket if there's no room for it
+	 */
+	protected Bucket track(Object key, long now) {
+		if (buckets.size() >= maxKeys) {
+			sweep(now);
+			if (buckets.size() >= maxKeys) {
+				return overflow;
+			}
+		}
+		Bucket fresh = new Bucket(label(key), now);
+		Bucket bucket = buckets.putIfAbsent(key, fresh);
+		return bucket == null ? fresh : bucket;
+	}
+	/**
+	 * Forget every key that's been idle for {@link #idleNanos}. Only one thread sweeps at a time,
+	 * and at most once per idle period, so a flood of new keys doesn't mean a flood of sweeps.
+	 * Suppressed counts not yet summarized are moved to the overflow bucket rather than lost.
+	 *
+	 * @param now
+	 *        the current {@link System#nanoTime()}
+	 */
+	protected void sweep(long now) {
+		long due = nextSweep.get();
+		if (now - due < 0 || !nextSweep.compareAndSet(due, now + idleNanos)) {
+			return;
+		}
+		Iterator<Bucket> all = buckets.values().iterator();
+		while (all.hasNext()) {
+			Bucket bucket = all.next();
+			if (now - bucket.lastSeen < idleNanos) {
+				continue;
+			}
+			all.remove();
+			long left = bucket.suppressed.getAndSet(0);
+			if (left > 0) {
+				overflow.level = bucket.level;
+				overflow.suppressed.addAndGet(left);
+			}
+		}
+	}
+	protected static void summarize(Bucket bucket, Reporter to) {
+		if (bucket.suppressed.get() == 0) {
+			return;
+		}
+		long count = bucket.suppressed.getAndSet(0);
+		if (count > 0) {
+			to.suppressed(bucket.label, bucket.level, count);
+		}
+	}
+	protected static boolean suppress(Bucket bucket, java.util.logging.Level level) {
+		bucket.level = level;
+		bucket.suppressed.incrementAndGet();
+		LogMetrics.GLOBAL.suppressed();
+		return false;
+	}
+	protected static String label(Object key) {
+		String text = key instanceof Class ? ((Class<?>) key).getName() : key instanceof StackTraceElement ? "at " + key : String.valueOf(key);
+		return text.length() > MAX_LABEL ? text.substring(0, MAX_LABEL - 3) + "..." : text;
+	}
+	private static synchronized ScheduledExecutorService summaries() {
+		if (summaries == null) {
+			summaries = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "LogThrottle-summaries");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return summaries;
+	}
+}
@@ -1,9 +1,12 @@
 package princessrtfm.core.logger;
 
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import princessrtfm.core.util.Datetime;
@@ -186,6 +189,17 @@ public class MagicFormatter extends Formatter {
 		 * @since 1.0.0-alpha.1
 		 */
 		public static final String LOG_MESSAGE = "message";
+		/**
+		 * Magic format code to be replaced with the full stack trace of the record's exception,
+		 * including its causes, or nothing if there isn't one
+		 */
+		public static final String STACK_TRACE = "stackTrace";
+		/**
+		 * Magic format code to be replaced with the full stack trace of the record's exception the
+		 * first time an exception with the same classes and frames is logged, tagged with an id,
+		 * and with just the exception and that id every time after that
+		 */
+		public static final String STACK_TRACE_ONCE = "stackTraceOnce";
 	}
 	/**
 	 * The default delimiter, used to indicate magic
@@ -215,6 +229,108 @@ public class MagicFormatter extends Formatter {
 	 * Whether or not this formatter instance allows magic formatting in the logged message
 	 */
 	public final boolean allowMagicMessage;
+	/**
+	 * A single piece of a compiled format string: either literal text, a magic format code, or a
+	 * custom timestamp (in which case {@link #text} holds the {@link Datetime#format(String)}
+	 * pattern, already compiled in {@link #stamp})
+	 */
+	protected static final class Token {
+		/**
+		 * One of the <tt>CODE_*</tt> constants in {@link MagicFormatter}
+		 */
+		public final int code;
+		/**
+		 * The literal text or custom timestamp pattern, if any
+		 */
+		public final String text;
+		/**
+		 * The compiled custom timestamp pattern, if any
+		 */
+		protected final StampFormat stamp;
+		protected Token(int c, String t) {
+			this(c, t, null);
+		}
+		protected Token(int c, String t, StampFormat s) {
+			code = c;
+			text = t;
+			stamp = s;
+		}
+	}
+	protected static final int CODE_LITERAL = 0;
+	protected static final int CODE_LEVEL_NAME = 1;
+	protected static final int CODE_LEVEL_NUM = 2;
+	protected static final int CODE_SOURCE_THREAD_NAME = 3;
+	protected static final int CODE_SOURCE_THREAD_ID = 4;
+	protected static final int CODE_LOGGER_NAME = 5;
+	protected static final int CODE_LOG_MESSAGE = 6;
+	// Everything from here on needs the current time
+	protected static final int CODE_YEAR = 7;
+	protected static final int CODE_YEAR_SHORT = 8;
+	protected static final int CODE_MONTH_NUMBER = 9;
+	protected static final int CODE_MONTH_NAME = 10;
+	protected static final int CODE_MONTH_NAME_SHORT = 11;
+	protected static final int CODE_DAY_OF_MONTH = 12;
+	protected static final int CODE_DAY_OF_YEAR = 13;
+	protected static final int CODE_DAY_NAME = 14;
+	protected static final int CODE_DAY_NAME_SHORT = 15;
+	protected static final int CODE_HOUR_12 = 16;
+	protected static final int CODE_HOUR_24 = 17;
+	protected static final int CODE_MINUTE = 18;
+	protected static final int CODE_SECOND = 19;
+	protected static final int CODE_TIMEZONE_OFFSET = 20;
+	protected static final int CODE_ISO_DATE = 21;
+	protected static final int CODE_ISO_TIME = 22;
+	protected static final int CODE_ISO_STAMP = 23;
+	protected static final int CODE_AM_PM_LOWER = 24;
+	protected static final int CODE_AM_PM_UPPER = 25;
+	protected static final int CODE_ISO_DATE_ORDINAL = 26;
+	protected static final int CODE_CUSTOM_TIMESTAMP = 27;
+	// These don't need the time, despite coming after the time codes
+	protected static final int CODE_STACK_TRACE = 28;
+	protected static final int CODE_STACK_TRACE_ONCE = 29;
+	/**
+	 * Per-thread objects reused from one record to the next, so that formatting doesn't allocate
+	 * in the steady state
+	 */
+	protected static final class Scratch {
+		/**
+		 * Buffers larger than this (in characters) are thrown away after use instead of being kept
+		 * around, so one huge record doesn't pin that much memory per thread forever
+		 */
+		protected static final int MAX_RETAINED = 64 * 1024;
+		protected StringBuilder buffer = new StringBuilder(256);
+		protected final char[] chunk = new char[1024];
+		protected final Datetime now = new Datetime(0);
+		protected void release() {
+			if (buffer.capacity() > MAX_RETAINED) {
+				buffer = new StringBuilder(256);
+			}
+		}
+	}
+	protected static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+	/**
+	 * The compiled form of {@link #FORMAT}, built once by the constructor so that formatting a
+	 * record is a single pass over the codes that are actually present
+	 */
+	protected final Token[] plan;
+	/**
+	 * Whether {@link #plan} contains any codes that need the cached date/time fragments
+	 */
+	protected final boolean needsTime;
+	/**
+	 * Whether {@link #plan} contains any custom timestamps
+	 */
+	protected final boolean needsDatetime;
+	/**
+	 * Rendered stack traces, by structure, for the {@link FormatCode#STACK_TRACE} codes. Each
+	 * formatter keeps its own, so "seen before" always refers to something in the same output.
+	 */
+	protected final StackTraceCache traces = new StackTraceCache();
 	/**
 	 * Instantiate a formatter with the default format, delimiter, and extra magic permission
 	 */
@@ -252,6 +368,8 @@ public class MagicFormatter extends Formatter {
 	 *        - the delimiter for this formatter instance
 	 * @param extraMagic
 	 *        - whether this formatter instance should allow magic formatting in logged messages
+	 * @throws IllegalArgumentException
+	 *         if the format contains a custom timestamp with an invalid pattern
 	 */
 	public MagicFormatter(String fmt, String delim, boolean extraMagic) {
 		super();
@@ -259,77 +377,474 @@ public class MagicFormatter extends Formatter {
 		DELIM = delim.substring(0, 1);
 		REGEX_TIMESTAMP = Pattern.compile("\\Q" + DELIM + "\\E(?:date(?:time)?(?:stamp)?|time(?:stamp)?)\\|(?<format>[^\\Q" + DELIM + "\\E]+)\\Q" + DELIM + "\\E");
 		allowMagicMessage = extraMagic;
+		plan = compile(FORMAT, true);
+		needsTime = usesTime(plan);
+		needsDatetime = usesDatetime(plan);
 	}
 	/**
-	 * Replaces all of the format codes (see {@link FormatCode}) with the appropriate values
+	 * Look up the internal code for the name of a magic format code
+	 *
+	 * @param name
+	 *        the text found between two delimiters
+	 * @return one of the <tt>CODE_*</tt> constants, or {@link #CODE_LITERAL} if the name isn't a
+	 *         recognized format code
 	 */
-	// There's a magic format code for the short year, which is deprecated in Datetime.
+	// There's a magic format code for the short year, which is deprecated.
 	@SuppressWarnings("deprecation")
+	protected static int codeFor(String name) {
+		switch (name) {
+			case FormatCode.LEVEL_NAME:
+				return CODE_LEVEL_NAME;
+			case FormatCode.LEVEL_NUM:
+				return CODE_LEVEL_NUM;
+			case FormatCode.SOURCE_THREAD_NAME:
+				return CODE_SOURCE_THREAD_NAME;
+			case FormatCode.SOURCE_THREAD_ID:
+				return CODE_SOURCE_THREAD_ID;
+			case FormatCode.LOGGER_NAME:
+				return CODE_LOGGER_NAME;
+			case FormatCode.LOG_MESSAGE:
+				return CODE_LOG_MESSAGE;
+			case FormatCode.YEAR:
+				return CODE_YEAR;
+			case FormatCode.YEAR_SHORT:
+				return CODE_YEAR_SHORT;
+			case FormatCode.MONTH_NUMBER:
+				return CODE_MONTH_NUMBER;
+			case FormatCode.MONTH_NAME:
+				return CODE_MONTH_NAME;
+			case FormatCode.MONTH_NAME_SHORT:
+				return CODE_MONTH_NAME_SHORT;
+			case FormatCode.DAY_OF_MONTH:
+				return CODE_DAY_OF_MONTH;
+			case FormatCode.DAY_OF_YEAR:
+				return CODE_DAY_OF_YEAR;
+			case FormatCode.DAY_NAME:
+				return CODE_DAY_NAME;
+			case FormatCode.DAY_NAME_SHORT:
+				return CODE_DAY_NAME_SHORT;
+			case FormatCode.HOUR_12:
+				return CODE_HOUR_12;
+			case FormatCode.HOUR_24:
+				return CODE_HOUR_24;
+			case FormatCode.MINUTE:
+				return CODE_MINUTE;
+			case FormatCode.SECOND:
+				return CODE_SECOND;
+			case FormatCode.TIMEZONE_OFFSET:
+				return CODE_TIMEZONE_OFFSET;
+			case FormatCode.ISO_DATE:
+				return CODE_ISO_DATE;
+			case FormatCode.ISO_TIME:
+				return CODE_ISO_TIME;
+			case FormatCode.ISO_STAMP:
+				return CODE_ISO_STAMP;
+			case FormatCode.AM_PM_LOWER:
+				return CODE_AM_PM_LOWER;
+			case FormatCode.AM_PM_UPPER:
+				return CODE_AM_PM_UPPER;
+			case FormatCode.ISO_DATE_ORDINAL:
+				return CODE_ISO_DATE_ORDINAL;
+			case FormatCode.STACK_TRACE:
+				return CODE_STACK_TRACE;
+			case FormatCode.STACK_TRACE_ONCE:
+				return CODE_STACK_TRACE_ONCE;
+			default:
+				return CODE_LITERAL;
+		}
+	}
+	/**
+	 * Check whether the name of a magic format code is a custom timestamp (the same thing
+	 * {@link #REGEX_TIMESTAMP} matches, minus the delimiters)
+	 *
+	 * @param name
+	 *        the text found between two delimiters
+	 * @return the custom timestamp pattern, or <code>null</code> if this isn't a custom timestamp
+	 */
+	protected static String timestampPattern(String name) {
+		int bar = name.indexOf('|');
+		if (bar < 0 || bar == name.length() - 1) {
+			return null;
+		}
+		switch (name.substring(0, bar)) {
+			case "date":
+			case "datetime":
+			case "datestamp":
+			case "datetimestamp":
+			case "time":
+			case "timestamp":
+				return name.substring(bar + 1);
+			default:
+				return null;
+		}
+	}
+	/**
+	 * Break a format string down into a list of literal text and magic format codes
+	 *
+	 * @param fmt
+	 *        the format string to compile
+	 * @param top
+	 *        whether this is the formatter's own format string (in which case a missing
+	 *        {@link FormatCode#LOG_MESSAGE} code means the message is appended, separated by a
+	 *        space) or a logged message being given extra magic (in which case the message code is
+	 *        left alone)
+	 * @return the compiled format
+	 */
+	protected Token[] compile(String fmt, boolean top) {
+		List<Token> tokens = new ArrayList<Token>();
+		StringBuilder literal = new StringBuilder();
+		boolean hasMessage = false;
+		int from = 0;
+		int len = fmt.length();
+		char delim = DELIM.charAt(0);
+		while (from < len) {
+			int open = fmt.indexOf(delim, from);
+			if (open < 0) {
+				literal.append(fmt, from, len);
+				break;
+			}
+			literal.append(fmt, from, open);
+			int close = fmt.indexOf(delim, open + 1);
+			if (close < 0) {
+				literal.append(fmt, open, len);
+				break;
+			}
+			String name = fmt.substring(open + 1, close);
+			int code = codeFor(name);
+			String stamp = null;
+			StampFormat compiled = null;
+			if (code == CODE_LITERAL) {
+				stamp = timestampPattern(name);
+				if (stamp != null) {
+					try {
+						compiled = StampFormat.of(stamp);
+						code = CODE_CUSTOM_TIMESTAMP;
+					}
+					catch (IllegalArgumentException e) {
+						if (top) {
+							throw new IllegalArgumentException("Invalid custom timestamp pattern '" + stamp + "' in format", e);
+						}
+						// A bad pattern in a logged message is just text
+					}
+				}
+			}
+			if (code == CODE_LOG_MESSAGE && !top) {
+				// Messages don't get to include themselves
+				code = CODE_LITERAL;
+			}
+			if (code == CODE_LITERAL) {
+				// Not magic, so the closing delimiter might be the start of a real code
+				literal.append(delim);
+				from = open + 1;
+				continue;
+			}
+			if (literal.length() > 0) {
+				tokens.add(new Token(CODE_LITERAL, literal.toString()));
+				literal.setLength(0);
+			}
+			tokens.add(new Token(code, stamp, compiled));
+			hasMessage |= code == CODE_LOG_MESSAGE;
+			from = close + 1;
+		}
+		if (top && !hasMessage) {
+			literal.append(' ');
+		}
+		if (literal.length() > 0) {
+			tokens.add(new Token(CODE_LITERAL, literal.toString()));
+		}
+		if (top && !hasMessage) {
+			tokens.add(new Token(CODE_LOG_MESSAGE, null));
+		}
+		return tokens.toArray(new Token[tokens.size()]);
+	}
+	/**
+	 * @param tokens
+	 *        a compiled format
+	 * @return <code>true</code> if any of the given tokens need the cached date/time fragments
+	 */
+	protected static boolean usesTime(Token[] tokens) {
+		for (Token token : tokens) {
+			if (token.code >= CODE_YEAR && token.code < CODE_CUSTOM_TIMESTAMP) {
+				return true;
+			}
+		}
+		return false;
+	}
+	/**
+	 * @param tokens
+	 *        a compiled format
+	 * @return <code>true</code> if any of the given tokens are custom timestamps
+	 */
+	protected static boolean usesDatetime(Token[] tokens) {
+		for (Token token : tokens) {
+			if (token.code == CODE_CUSTOM_TIMESTAMP) {
+				return true;
+			}
+		}
+		return false;
+	}
+	/**
+	 * Replaces all of the format codes (see {@link FormatCode}) with the appropriate values
+	 */
 	@Override
 	public String format(LogRecord rec) {
-		final int threadID = rec.getThreadID();
-		final String threadName = Reflection.getPrettyThreadName(threadID);
-		String name = rec.getLoggerName() == null ? "Unknown" : rec.getLoggerName();
-		String content = rec.getMessage() == null ? "" : rec.getMessage().trim();
-		if (rec.getThrown() != null) {
-			boolean isEmpty = content.isEmpty();
-			content += isEmpty ? "" : " [";
-			content += rec.getThrown().toString();
-			content += isEmpty ? "" : "]";
-		}
-		Datetime now = new Datetime();
-		String msg = FORMAT;
+		Scratch scratch = SCRATCH.get();
+		StringBuilder out = scratch.buffer;
+		out.setLength(0);
+		formatTo(rec, out);
+		String msg = out.toString();
+		scratch.release();
+		return msg;
+	}
+	/**
+	 * Replaces all of the format codes (see {@link FormatCode}) with the appropriate values,
+	 * writing the result (including the trailing newline) directly into the given buffer. Unlike
+	 * {@link #format(LogRecord)}, this doesn't need to create a new {@link String} for every
+	 * record.
+	 *
+	 * @param rec
+	 *        the record to format
+	 * @param out
+	 *        the buffer to append the formatted record to
+	 * @return <tt>out</tt>
+	 */
+	public StringBuilder formatTo(LogRecord rec, StringBuilder out) {
+		long started = LogMetrics.GLOBAL.startFormat();
+		int before = out.length();
+		Token[] extra = null;
 		if (allowMagicMessage) {
-			if (msg.contains(DELIM + FormatCode.LOG_MESSAGE + DELIM)) {
-				msg = msg.replaceAll("\\Q" + DELIM + FormatCode.LOG_MESSAGE + DELIM + "\\E", content);
+			String content = messageOf(rec);
+			if (content.indexOf(DELIM.charAt(0)) >= 0) {
+				extra = compile(content, false);
+			}
+		}
+		// The record's own time, not the current time, since it may be formatted long after it was
+		// logged (see AsyncHandler)
+		long millis = rec.getMillis();
+		TimestampCache.Second time = null;
+		if (needsTime || (extra != null && usesTime(extra))) {
+			time = TimestampCache.at(millis);
+		}
+		Datetime now = null;
+		if (needsDatetime || (extra != null && usesDatetime(extra))) {
+			now = SCRATCH.get().now;
+			now.getDateObject().setTime(millis);
+		}
+		render(out, plan, rec, extra, time, now);
+		out.append('\n');
+		LogMetrics.GLOBAL.formatted(rec.getLevel(), out.length() - before, started);
+		return out;
+	}
+	/**
+	 * Replaces all of the format codes (see {@link FormatCode}) with the appropriate values,
+	 * writing the result (including the trailing newline) to the given {@link Appendable}. The
+	 * record is built in a reusable per-thread buffer, and {@link Writer}s are fed from a reusable
+	 * character array, so no intermediate {@link String}s are created.
+	 *
+	 * @param rec
+	 *        the record to format
+	 * @param out
+	 *        where to write the formatted record
+	 * @throws IOException
+	 *         if the {@link Appendable} throws it
+	 */
+	public void formatTo(LogRecord rec, Appendable out) throws IOException {
+		if (out instanceof StringBuilder) {
+			formatTo(rec, (StringBuilder) out);
+			return;
+		}
+		Scratch scratch = SCRATCH.get();
+		StringBuilder buf = scratch.buffer;
+		buf.setLength(0);
+		formatTo(rec, buf);
+		try {
+			if (out instanceof Writer) {
+				Writer w = (Writer) out;
+				char[] chunk = scratch.chunk;
+				for (int from = 0, len = buf.length(); from < len; from += chunk.length) {
+					int end = Math.min(len, from + chunk.length);
+					buf.getChars(from, end, chunk, 0);
+					w.write(chunk, 0, end - from);
+				}
 			}
 			else {
-				msg = msg + " " + content;
+				out.append(buf);
 			}
 		}
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.LEVEL_NAME + DELIM + "\\E", rec.getLevel().getLocalizedName());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.LEVEL_NUM + DELIM + "\\E", String.valueOf(rec.getLevel().intValue()));
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.SOURCE_THREAD_NAME + DELIM + "\\E", threadName);
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.SOURCE_THREAD_ID + DELIM + "\\E", String.valueOf(threadID));
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.YEAR + DELIM + "\\E", now.getLongYear());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.YEAR_SHORT + DELIM + "\\E", now.getShortYear());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.MONTH_NUMBER + DELIM + "\\E", now.getMonth());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.MONTH_NAME + DELIM + "\\E", now.getLongMonth());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.MONTH_NAME_SHORT + DELIM + "\\E", now.getShortMonth());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.DAY_OF_MONTH + DELIM + "\\E", now.getDay());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.DAY_OF_YEAR + DELIM + "\\E", now.getDayOfYear());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.DAY_NAME + DELIM + "\\E", now.getDayName());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.DAY_NAME_SHORT + DELIM + "\\E", now.getShortDayName());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.HOUR_12 + DELIM + "\\E", now.getHour12());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.HOUR_24 + DELIM + "\\E", now.getHour24());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.MINUTE + DELIM + "\\E", now.getMinute());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.SECOND + DELIM + "\\E", now.getSecond());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.TIMEZONE_OFFSET + DELIM + "\\E", now.getTimezone());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.ISO_DATE + DELIM + "\\E", now.dateISO());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.ISO_TIME + DELIM + "\\E", now.timeISO());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.ISO_STAMP + DELIM + "\\E", now.stampISO());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.AM_PM_LOWER + DELIM + "\\E", now.isAM() ? "am" : "pm");
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.AM_PM_UPPER + DELIM + "\\E", now.isAM() ? "AM" : "PM");
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.ISO_DATE_ORDINAL + DELIM + "\\E", now.ordinalISO());
-		msg = msg.replaceAll("\\Q" + DELIM + FormatCode.LOGGER_NAME + DELIM + "\\E", name);
-		Matcher m = REGEX_TIMESTAMP.matcher(msg).reset();
-		while (m.find()) {
-			StringBuffer sb = new StringBuffer();
-			String f = m.group("format");
-			sb.append(msg.substring(0, m.start()));
-			sb.append(now.format(f));
-			sb.append(msg.substring(m.end()));
-			msg = sb.toString();
-			m.reset(msg);
+		finally {
+			scratch.release();
 		}
-		if (!allowMagicMessage) {
-			if (msg.contains(DELIM + FormatCode.LOG_MESSAGE + DELIM)) {
-				msg = msg.replaceAll("\\Q" + DELIM + FormatCode.LOG_MESSAGE + DELIM + "\\E", content);
+	}
+	/**
+	 * Write the message of the given record, trimmed and followed by the exception (if any), in
+	 * the same way it would be substituted for {@link FormatCode#LOG_MESSAGE}
+	 *
+	 * @param out
+	 *        the buffer to write to
+	 * @param rec
+	 *        the record whose message should be written
+	 */
+	protected static void appendMessage(StringBuilder out, LogRecord rec) {
+		String msg = rec.getMessage();
+		int start = 0;
+		int end = 0;
+		if (msg != null) {
+			// Same as String.trim(), but without making a new string
+			end = msg.length();
+			while (start < end && msg.charAt(start) <= ' ') {
+				++start;
 			}
-			else {
-				msg = msg + " " + content;
+			while (end > start && msg.charAt(end - 1) <= ' ') {
+				--end;
+			}
+			out.append(msg, start, end);
+		}
+		if (rec.getThrown() != null) {
+			boolean isEmpty = start == end;
+			if (!isEmpty) {
+				out.append(" [");
+			}
+			out.append(rec.getThrown());
+			if (!isEmpty) {
+				out.append(']');
+			}
+		}
+	}
+	/**
+	 * @param rec
+	 *        the record whose message should be returned
+	 * @return the message of the given record, as written by
+	 *         {@link #appendMessage(StringBuilder, LogRecord)}
+	 */
+	protected static String messageOf(LogRecord rec) {
+		StringBuilder sb = new StringBuilder();
+		appendMessage(sb, rec);
+		return sb.toString();
+	}
+	/**
+	 * Write a compiled format for the given record into a buffer
+	 *
+	 * @param out
+	 *        the buffer to write to
+	 * @param tokens
+	 *        the compiled format
+	 * @param rec
+	 *        the record being formatted
+	 * @param extra
+	 *        the compiled form of the record's message, if it should be given extra magic, or
+	 *        <code>null</code> to write the message as-is
+	 * @param time
+	 *        the cached date/time fragments to use for date/time codes, or <code>null</code> if
+	 *        none are used
+	 * @param now
+	 *        the time to use for custom timestamps, or <code>null</code> if none are used
+	 */
+	// LogRecord's thread ID is an int, and has been deprecated in favour of the long version, which
+	// older JVMs don't have.
+	@SuppressWarnings("deprecation")
+	protected void render(StringBuilder out, Token[] tokens, LogRecord rec, Token[] extra, TimestampCache.Second time, Datetime now) {
+		for (Token token : tokens) {
+			switch (token.code) {
+				case CODE_LITERAL:
+					out.append(token.text);
+					break;
+				case CODE_LEVEL_NAME:
+					out.append(rec.getLevel().getLocalizedName());
+					break;
+				case CODE_LEVEL_NUM:
+					out.append(rec.getLevel().intValue());
+					break;
+				case CODE_SOURCE_THREAD_NAME:
+					out.append(Reflection.getPrettyThreadName(rec.getThreadID()));
+					break;
+				case CODE_SOURCE_THREAD_ID:
+					out.append(rec.getThreadID());
+					break;
+				case CODE_LOGGER_NAME:
+					out.append(rec.getLoggerName() == null ? "Unknown" : rec.getLoggerName());
+					break;
+				case CODE_LOG_MESSAGE:
+					if (extra == null) {
+						appendMessage(out, rec);
+					}
+					else {
+						render(out, extra, rec, null, time, now);
+					}
+					break;
+				case CODE_YEAR:
+					out.append(time.day.year);
+					break;
+				case CODE_YEAR_SHORT:
+					out.append(time.day.shortYear);
+					break;
+				case CODE_MONTH_NUMBER:
+					out.append(time.day.month);
+					break;
+				case CODE_MONTH_NAME:
+					out.append(time.day.monthName);
+					break;
+				case CODE_MONTH_NAME_SHORT:
+					out.append(time.day.shortMonthName);
+					break;
+				case CODE_DAY_OF_MONTH:
+					out.append(time.day.day);
+					break;
+				case CODE_DAY_OF_YEAR:
+					out.append(time.day.yearDay);
+					break;
+				case CODE_DAY_NAME:
+					out.append(time.day.dayName);
+					break;
+				case CODE_DAY_NAME_SHORT:
+					out.append(time.day.shortDayName);
+					break;
+				case CODE_HOUR_12:
+					out.append(time.hour12);
+					break;
+				case CODE_HOUR_24:
+					out.append(time.hour24);
+					break;
+				case CODE_MINUTE:
+					out.append(time.minute);
+					break;
+				case CODE_SECOND:
+					out.append(time.second);
+					break;
+				case CODE_TIMEZONE_OFFSET:
+					out.append(time.timezone);
+					break;
+				case CODE_ISO_DATE:
+					out.append(time.day.dateISO);
+					break;
+				case CODE_ISO_TIME:
+					out.append(time.timeISO);
+					break;
+				case CODE_ISO_STAMP:
+					out.append(time.stampISO);
+					break;
+				case CODE_AM_PM_LOWER:
+					out.append(time.am ? "am" : "pm");
+					break;
+				case CODE_AM_PM_UPPER:
+					out.append(time.am ? "AM" : "PM");
+					break;
+				case CODE_ISO_DATE_ORDINAL:
+					out.append(time.day.ordinalISO);
+					break;
+				case CODE_CUSTOM_TIMESTAMP:
+					token.stamp.formatTo(now, out);
+					break;
+				case CODE_STACK_TRACE:
+					if (rec.getThrown() != null) {
+						traces.appendTrace(out, rec.getThrown());
+					}
+					break;
+				case CODE_STACK_TRACE_ONCE:
+					if (rec.getThrown() != null) {
+						traces.appendTraceOnce(out, rec.getThrown());
+					}
+					break;
 			}
 		}
-		return msg + "\n";
 	}
 }
@@ -0,0 +1,167 @@
+package princessrtfm.core.logger;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+
+/**
+ * A {@link Handler} that copies formatted records into memory-mapped, pre-sized segment files.
+ * Writing a record is a memory copy into the OS page cache, with no system call, so bursts of
+ * debug logging are cheap. When a segment fills up, the next one is created and mapped.<br/>
+ * <br/>
+ * Segments are named <tt>base.000000</tt>, <tt>base.000001</tt>, and so on. Each record is
+ * stored as a four byte length followed by that many bytes of UTF-8 text; the length is written
+ * after the text, and a length of zero marks the end of a segment's records. Since the page cache
+ * survives the JVM, the segments stay readable after a crash, with at worst a truncated last
+ * record. Use {@link MappedLogReader} to read them back.
+ *
+ * @see MappedLogReader
+ */
+public class MappedLogHandler extends Handler {
+	/**
+	 * The default size, in bytes, of each segment
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	/**
+	 * The size, in bytes, of the length prefix in front of each record
+	 */
+	public static final int HEADER_SIZE = 4;
+	protected final Path base;
+	protected final int segmentSize;
+	protected int index;
+	protected MappedByteBuffer segment;
+	protected boolean closed = false;
+	/**
+	 * Write segments of the default size, starting after any that already exist
+	 *
+	 * @param file
+	 *        the base name of the segment files
+	 * @throws IOException
+	 *         if the first segment can't be created
+	 */
+	public MappedLogHandler(Path file) throws IOException {
+		this(file, DEFAULT_SEGMENT_SIZE);
+	}
+	/**
+	 * Write segments of the given size, starting after any that already exist
+	 *
+	 * @param file
+	 *        the base name of the segment files
+	 * @param size
+	 *        the size, in bytes, of each segment
+	 * @throws IOException
+	 *         if the first segment can't be created
+	 */
+	public MappedLogHandler(Path file, int size) throws IOException {
+		super();
+		if (size <= HEADER_SIZE) {
+			throw new IllegalArgumentException("Segments must be bigger than " + HEADER_SIZE + " bytes, got " + size);
+		}
+		base = file.toAbsolutePath();
+		segmentSize = size;
+		setFormatter(new MagicFormatter());
+		index = MappedLogReader.lastSegment(base) + 1;
+		segment = map(index);
+	}
+	/**
+	 * @param n
+	 *        the index of a segment
+	 * @param file
+	 *        the base name of the segment files
+	 * @return the path of that segment
+	 */
+	public static Path segmentPath(Path file, int n) {
+		return file.resolveSibling(file.getFileName() + "." + String.format("%06d", n));
+	}
+	/**
+	 * Format and encode a record on the calling thread, then copy it into the current segment
+	 */
+	@Override
+	public void publish(LogRecord rec) {
+		if (!isLoggable(rec)) {
+			return;
+		}
+		ByteBuffer encoded;
+		try {
+			encoded = RecordEncoder.get().encode(getFormatter(), rec);
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		int len = encoded.remaining();
+		if (len == 0) {
+			return;
+		}
+		if (len > segmentSize - HEADER_SIZE) {
+			LogMetrics.GLOBAL.dropped();
+			reportError("Record of " + len + " bytes doesn't fit in a " + segmentSize + " byte segment", null, ErrorManager.WRITE_FAILURE);
+			return;
+		}
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			if (segment.remaining() < HEADER_SIZE + len) {
+				try {
+					segment = map(++index);
+				}
+				catch (IOException e) {
+					reportError(null, e, ErrorManager.OPEN_FAILURE);
+					return;
+				}
+			}
+			int at = segment.position();
+			segment.position(at + HEADER_SIZE);
+			segment.put(encoded);
+			// The length goes in last, so a reader never sees a length without its text
+			segment.putInt(at, len);
+		}
+	}
+	/**
+	 * Force the current segment out to disk. This is never needed for the data to survive the JVM
+	 * exiting or crashing, only for it to survive the OS doing so.
+	 */
+	@Override
+	public synchronized void flush() {
+		if (!closed) {
+			segment.force();
+		}
+	}
+	/**
+	 * Force the current segment out to disk and stop accepting records
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		segment.force();
+		closed = true;
+		// There's no portable way to unmap; the mapping goes away when the buffer is collected
+		segment = null;
+	}
+	/**
+	 * Create and map a new segment
+	 *
+	 * @param n
+	 *        the index of the segment
+	 * @return the mapped segment, positioned at its start
+	 * @throws IOException
+	 *         if the segment can't be created or mapped
+	 */
+	protected MappedByteBuffer map(int n) throws IOException {
+		try (FileChannel ch = FileChannel.open(segmentPath(base, n), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// The mapping stays valid after the channel is closed
+			return ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package princessrtfm.core.logger;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Reads back the records written by a {@link MappedLogHandler}, one segment after another, in
+ * the order they were written. A truncated record at the end of a segment (from a crash in the
+ * middle of writing it) is skipped.
+ *
+ * @see MappedLogHandler
+ */
+public class MappedLogReader implements Closeable {
+	protected final Path base;
+	protected final List<Integer> segments;
+	protected int next = 0;
+	protected ByteBuffer current = null;
+	/**
+	 * Prepare to read every segment that currently exists for the given base name
+	 *
+	 * @param file
+	 *        the base name of the segment files
+	 * @throws IOException
+	 *         if the directory can't be listed
+	 */
+	public MappedLogReader(Path file) throws IOException {
+		base = file.toAbsolutePath();
+		segments = listSegments(base);
+	}
+	/**
+	 * Find the existing segments for the given base name
+	 *
+	 * @param file
+	 *        the base name of the segment files
+	 * @return the indices of the existing segments, in ascending order
+	 * @throws IOException
+	 *         if the directory can't be listed
+	 */
+	public static List<Integer> listSegments(Path file) throws IOException {
+		Path abs = file.toAbsolutePath();
+		String prefix = abs.getFileName() + ".";
+		List<Integer> found = new ArrayList<Integer>();
+		if (!Files.isDirectory(abs.getParent())) {
+			return found;
+		}
+		try (DirectoryStream<Path> dir = Files.newDirectoryStream(abs.getParent())) {
+			for (Path entry : dir) {
+				String name = entry.getFileName().toString();
+				if (!name.startsWith(prefix)) {
+					continue;
+				}
+				String suffix = name.substring(prefix.length());
+				if (suffix.isEmpty() || !suffix.matches("^\\d+$")) {
+					continue;
+				}
+				try {
+					found.add(Integer.parseInt(suffix, 10));
+				}
+				catch (NumberFormatException e) {
+					// Too many digits to be one of ours
+				}
+			}
+		}
+		Collections.sort(found);
+		return found;
+	}
+	/**
+	 * @param file
+	 *        the base name of the segment files
+	 * @return the highest existing segment index, or <tt>-1</tt> if there aren't any
+	 * @throws IOException
+	 *         if the directory can't be listed
+	 */
+	public static int lastSegment(Path file) throws IOException {
+		List<Integer> found = listSegments(file);
+		return found.isEmpty() ? -1 : found.get(found.size() - 1);
+	}
+	/**
+	 * Read the next record
+	 *
+	 * @return the next record's text (including whatever line ending the formatter added), or
+	 *         <code>null</code> if there are no more
+	 * @throws IOException
+	 *         if a segment can't be opened
+	 */
+	public String next() throws IOException {
+		while (true) {
+			if (current == null) {
+				if (next >= segments.size()) {
+					return null;
+				}
+				current = open(segments.get(next++));
+			}
+			if (current.remaining() >= MappedLogHandler.HEADER_SIZE) {
+				int len = current.getInt();
+				if (len > 0 && len <= current.remaining()) {
+					byte[] text = new byte[len];
+					current.get(text);
+					return new String(text, StandardCharsets.UTF_8);
+				}
+			}
+			// End of this segment's records, or a record cut off by a crash
+			current = null;
+		}
+	}
+	/**
+	 * Stop reading
+	 */
+	@Override
+	public void close() {
+		current = null;
+		next = segments.size();
+	}
+	protected ByteBuffer open(int n) throws IOException {
+		try (FileChannel ch = FileChannel.open(MappedLogHandler.segmentPath(base, n), StandardOpenOption.READ)) {
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+	}
+}
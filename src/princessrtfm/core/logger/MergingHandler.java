@@ -0,0 +1,341 @@
+package princessrtfm.core.logger;
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+
+/**
+ * A {@link Handler} for heavily multithreaded logging, where a single handler lock would make
+ * every logging thread take turns. Each thread formats its own records and adds them to its own
+ * lane (a lock-free queue), so logging threads never wait on each other or on the output. A
+ * background thread periodically takes everything from every lane, sorts it by timestamp, and
+ * writes it out in one go.<br/>
+ * <br/>
+ * The background thread is woken early when any lane reaches the flush threshold, or when a
+ * record at or above the flush level (by default {@link java.util.logging.Level#SEVERE}) is
+ * logged. Records are only in timestamp order within each flush; a record logged just before a
+ * flush can come out after one logged just after it on another thread.
+ */
+public class MergingHandler extends Handler {
+	/**
+	 * The default time, in milliseconds, between flushes
+	 */
+	public static final long DEFAULT_FLUSH_MILLIS = 100;
+	/**
+	 * The default number of records in a single lane that triggers an early flush
+	 */
+	public static final int DEFAULT_FLUSH_RECORDS = 1024;
+	/**
+	 * The default level at and above which records trigger an immediate flush
+	 */
+	public static final java.util.logging.Level DEFAULT_FLUSH_LEVEL = Level.SEVERE;
+	protected static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			if (a.millis != b.millis) {
+				return a.millis < b.millis ? -1 : 1;
+			}
+			return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+		}
+	};
+	protected static final class Entry {
+		protected final long millis;
+		protected final long sequence;
+		protected final String text;
+		protected Entry(LogRecord rec, String formatted) {
+			millis = rec.getMillis();
+			sequence = rec.getSequenceNumber();
+			text = formatted;
+		}
+	}
+	/**
+	 * The records one thread has logged since the last flush
+	 */
+	protected static final class Lane {
+		protected final Thread owner;
+		protected final Queue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+		protected final AtomicInteger size = new AtomicInteger();
+		/**
+		 * Set by the owner while it's adding a record, so {@link MergingHandler#close()} can wait
+		 * for it; only ever written by the owner, so it costs the other threads nothing
+		 */
+		protected volatile boolean publishing = false;
+		protected Lane(Thread thread) {
+			owner = thread;
+		}
+	}
+	protected final List<Lane> lanes = new CopyOnWriteArrayList<Lane>();
+	protected final ThreadLocal<Lane> lane = new ThreadLocal<Lane>() {
+		@Override
+		protected Lane initialValue() {
+			Lane mine = new Lane(Thread.currentThread());
+			lanes.add(mine);
+			return mine;
+		}
+	};
+	protected final OutputStream stream;
+	protected final Writer writer;
+	protected final Thread flusher;
+	protected final long flushNanos;
+	protected final int flushRecords;
+	protected volatile java.util.logging.Level flushLevel = DEFAULT_FLUSH_LEVEL;
+	protected volatile boolean closed = false;
+	/**
+	 * Set by {@link #close()} once no more records can arrive; the background thread's next drain
+	 * is its last
+	 */
+	protected volatile boolean finishing = false;
+	protected final AtomicLong requested = new AtomicLong();
+	protected long completed = 0;
+	protected final Object completion = new Object();
+	protected boolean wroteHead = false;
+	/**
+	 * Create a handler writing to <tt>System.err</tt> with the default flush interval and
+	 * threshold
+	 */
+	public MergingHandler() {
+		this(System.err);
+	}
+	/**
+	 * Create a handler writing to a stream with the default flush interval and threshold
+	 *
+	 * @param out
+	 *        the stream to write to
+	 */
+	public MergingHandler(OutputStream out) {
+		this(out, DEFAULT_FLUSH_MILLIS, DEFAULT_FLUSH_RECORDS);
+	}
+	/**
+	 * Create a handler writing to a stream
+	 *
+	 * @param out
+	 *        the stream to write to
+	 * @param millis
+	 *        the time, in milliseconds, between flushes
+	 * @param records
+	 *        the number of records waiting in any one thread's lane that triggers an early flush
+	 */
+	public MergingHandler(OutputStream out, long millis, int records) {
+		super();
+		if (millis < 1) {
+			throw new IllegalArgumentException("Flush interval must be positive, got " + millis);
+		}
+		stream = out;
+		writer = new BufferedWriter(new OutputStreamWriter(out));
+		flushNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		flushRecords = Math.max(1, records);
+		setFormatter(new MagicFormatter());
+		flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "MergingHandler-" + Integer.toHexString(System.identityHashCode(this)));
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+	/**
+	 * @return the level at and above which records trigger an immediate flush
+	 */
+	public java.util.logging.Level getFlushLevel() {
+		return flushLevel;
+	}
+	/**
+	 * @param level
+	 *        the level at and above which records trigger an immediate flush, or <code>null</code>
+	 *        to never flush early because of a record's level
+	 */
+	public void setFlushLevel(java.util.logging.Level level) {
+		flushLevel = level == null ? Level.OFF : level;
+	}
+	/**
+	 * Format a record on the calling thread and add it to the thread's lane; this never locks
+	 */
+	@Override
+	public void publish(LogRecord rec) {
+		if (closed || !isLoggable(rec)) {
+			return;
+		}
+		String text;
+		try {
+			text = getFormatter().format(rec);
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		Lane mine = lane.get();
+		// Checking closed again after saying a record is on its way means either close() waits
+		// for the record, or the record sees that the handler is closed
+		mine.publishing = true;
+		try {
+			if (closed) {
+				return;
+			}
+			mine.queue.offer(new Entry(rec, text));
+			int waiting = mine.size.incrementAndGet();
+			java.util.logging.Level threshold = flushLevel;
+			if (waiting >= flushRecords || (threshold != Level.OFF && rec.getLevel().intValue() >= threshold.intValue())) {
+				LockSupport.unpark(flusher);
+			}
+		}
+		finally {
+			mine.publishing = false;
+		}
+	}
+	/**
+	 * Wait until everything logged before this call has been written out
+	 */
+	@Override
+	public void flush() {
+		long target = requested.incrementAndGet();
+		LockSupport.unpark(flusher);
+		boolean interrupted = false;
+		synchronized (completion) {
+			while (completed < target && flusher.isAlive()) {
+				try {
+					completion.wait(100);
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	/**
+	 * Stop accepting records, write out everything still waiting, and close the stream (unless
+	 * it's <tt>System.out</tt> or <tt>System.err</tt>, which are only flushed)
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		// Let records already past the closed check into their lanes before the last drain
+		for (Lane each : lanes) {
+			while (each.publishing) {
+				Thread.yield();
+			}
+		}
+		finishing = true;
+		LockSupport.unpark(flusher);
+		boolean interrupted = false;
+		while (flusher.isAlive()) {
+			try {
+				flusher.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		try {
+			Formatter fmt = getFormatter();
+			if (wroteHead && fmt != null) {
+				writer.write(fmt.getTail(this));
+			}
+			writer.flush();
+			if (stream != System.err && stream != System.out) {
+				writer.close();
+			}
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	/**
+	 * The body of the background thread: wait for the next flush, then take everything from every
+	 * lane, sort it, and write it
+	 */
+	protected void drain() {
+		List<Entry> batch = new ArrayList<Entry>();
+		while (true) {
+			boolean last = finishing;
+			if (!last && requested.get() == completed) {
+				LockSupport.parkNanos(this, flushNanos);
+				last = finishing;
+			}
+			long round = requested.get();
+			for (Lane each : lanes) {
+				int taken = 0;
+				Entry entry;
+				while ( (entry = each.queue.poll()) != null) {
+					batch.add(entry);
+					++taken;
+				}
+				each.size.addAndGet(-taken);
+				if (taken == 0 && !each.owner.isAlive()) {
+					// Nothing more can ever arrive from a thread that's gone, but it may have added
+					// something between the poll and the check
+					lanes.remove(each);
+					while ( (entry = each.queue.poll()) != null) {
+						batch.add(entry);
+						each.size.decrementAndGet();
+					}
+				}
+			}
+			if (!batch.isEmpty()) {
+				Collections.sort(batch, ORDER);
+				write(batch);
+				batch.clear();
+			}
+			synchronized (completion) {
+				completed = round;
+				completion.notifyAll();
+			}
+			if (last) {
+				return;
+			}
+		}
+	}
+	/**
+	 * Write a sorted batch of records and flush the stream; only ever called from the background
+	 * thread
+	 *
+	 * @param batch
+	 *        the records to write
+	 */
+	protected void write(List<Entry> batch) {
+		try {
+			if (!wroteHead) {
+				wroteHead = true;
+				Formatter fmt = getFormatter();
+				if (fmt != null) {
+					writer.write(fmt.getHead(this));
+				}
+			}
+			for (Entry entry : batch) {
+				writer.write(entry.text);
+			}
+			writer.flush();
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+}
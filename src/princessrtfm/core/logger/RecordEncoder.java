@@ -0,0 +1,172 @@
+package princessrtfm.core.logger;
+
+
+import java.nio.ByteBuffer;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+
+/**
+ * Per-thread scratch space for formatting a record and encoding it as UTF-8, for handlers that
+ * write bytes rather than characters. Each thread reuses the same buffers from one record to the
+ * next, so the steady state doesn't allocate (when the formatter is a {@link MagicFormatter}).
+ */
+final class RecordEncoder {
+	/**
+	 * Buffers larger than this are used once and then thrown away, so one huge record doesn't pin
+	 * that much memory per thread forever
+	 */
+	static final int MAX_RETAINED = 64 * 1024;
+	private static final ThreadLocal<RecordEncoder> LOCAL = new ThreadLocal<RecordEncoder>() {
+		@Override
+		protected RecordEncoder initialValue() {
+			return new RecordEncoder();
+		}
+	};
+	private StringBuilder chars = new StringBuilder(256);
+	private ByteBuffer bytes = ByteBuffer.allocate(1024);
+	private RecordEncoder() {}
+	/**
+	 * @return the calling thread's encoder
+	 */
+	static RecordEncoder get() {
+		return LOCAL.get();
+	}
+	/**
+	 * Format and encode a record
+	 *
+	 * @param fmt
+	 *        the formatter to use
+	 * @param rec
+	 *        the record to encode
+	 * @return a buffer holding the encoded record, ready to be read, which is only valid until
+	 *         this thread encodes something else
+	 */
+	ByteBuffer encode(Formatter fmt, LogRecord rec) {
+		ByteBuffer out = encode(format(fmt, rec));
+		release();
+		return out;
+	}
+	/**
+	 * Format a record into this thread's character buffer
+	 *
+	 * @param fmt
+	 *        the formatter to use
+	 * @param rec
+	 *        the record to format
+	 * @return the formatted record, which is only valid until this thread formats something else
+	 *         or calls {@link #release()}
+	 */
+	CharSequence format(Formatter fmt, LogRecord rec) {
+		StringBuilder sb = chars;
+		sb.setLength(0);
+		if (fmt instanceof MagicFormatter) {
+			((MagicFormatter) fmt).formatTo(rec, sb);
+		}
+		else if (fmt != null) {
+			sb.append(fmt.format(rec));
+		}
+		else {
+			sb.append(rec.getMessage()).append('\n');
+		}
+		return sb;
+	}
+	/**
+	 * Let go of the character buffer if a record made it too big to keep
+	 */
+	void release() {
+		if (chars.capacity() > MAX_RETAINED) {
+			chars = new StringBuilder(256);
+		}
+	}
+	/**
+	 * Encode text as UTF-8 straight into a buffer, which may be direct, without going through a
+	 * {@link java.nio.charset.CharsetEncoder} or any intermediate buffers. Unpaired surrogates are written as
+	 * <tt>?</tt>, as the standard encoder does.
+	 *
+	 * @param text
+	 *        the text to encode
+	 * @param out
+	 *        the buffer to write to
+	 * @return <code>true</code> if all of the text fit, or <code>false</code> (with the buffer's
+	 *         position left where it was) if it didn't
+	 */
+	static boolean encodeUTF8(CharSequence text, ByteBuffer out) {
+		int start = out.position();
+		int len = text.length();
+		for (int i = 0; i < len; ++i) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				if (!out.hasRemaining()) {
+					out.position(start);
+					return false;
+				}
+				out.put((byte) c);
+			}
+			else if (c < 0x800) {
+				if (out.remaining() < 2) {
+					out.position(start);
+					return false;
+				}
+				out.put((byte) (0xC0 | c >> 6));
+				out.put((byte) (0x80 | c & 0x3F));
+			}
+			else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(text.charAt(i + 1))) {
+					if (out.remaining() < 4) {
+						out.position(start);
+						return false;
+					}
+					int cp = Character.toCodePoint(c, text.charAt(++i));
+					out.put((byte) (0xF0 | cp >> 18));
+					out.put((byte) (0x80 | cp >> 12 & 0x3F));
+					out.put((byte) (0x80 | cp >> 6 & 0x3F));
+					out.put((byte) (0x80 | cp & 0x3F));
+				}
+				else {
+					if (!out.hasRemaining()) {
+						out.position(start);
+						return false;
+					}
+					out.put((byte) '?');
+				}
+			}
+			else {
+				if (out.remaining() < 3) {
+					out.position(start);
+					return false;
+				}
+				out.put((byte) (0xE0 | c >> 12));
+				out.put((byte) (0x80 | c >> 6 & 0x3F));
+				out.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+		LogMetrics.GLOBAL.encoded(out.position() - start);
+		return true;
+	}
+	/**
+	 * Encode some text
+	 *
+	 * @param text
+	 *        the text to encode
+	 * @return a buffer holding the encoded text, ready to be read, which is only valid until this
+	 *         thread encodes something else
+	 */
+	ByteBuffer encode(CharSequence text) {
+		// Three bytes per char is UTF-8's worst case (surrogate pairs are four bytes for two chars)
+		int worst = text.length() * 3;
+		ByteBuffer out = bytes;
+		if (out.capacity() < worst) {
+			out = ByteBuffer.allocate(worst);
+			if (worst <= MAX_RETAINED) {
+				bytes = out;
+			}
+		}
+		out.clear();
+		if (!encodeUTF8(text, out)) {
+			throw new IllegalStateException("Encoded text overflowed its buffer");
+		}
+		out.flip();
+		return out;
+	}
+}
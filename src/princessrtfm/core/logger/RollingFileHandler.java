@@ -0,0 +1,452 @@
+package princessrtfm.core.logger;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import princessrtfm.core.util.CoarseClock;
+
+
+/**
+ * A file {@link Handler} that commits records in groups. Logging threads format and encode their
+ * own records, then copy the bytes into a shared pending buffer. A background thread swaps that
+ * buffer for an empty one and writes the whole batch with a single {@link FileChannel} write when
+ * the flush policy says so:
+ * <ul>
+ * <li>every so many records (see {@link #setFlushRecords(int)})</li>
+ * <li>every so many milliseconds (see {@link #setFlushMillis(long)})</li>
+ * <li>immediately for records at or above a level (see {@link #setFlushLevel(java.util.logging.Level)})</li>
+ * </ul>
+ * Batches can optionally be forced to disk after each write (see {@link #setSync(boolean)}).<br/>
+ * <br/>
+ * Files are rolled when they would grow past a size limit, or after a time limit, by renaming
+ * <tt>name</tt> to <tt>name.1</tt>, <tt>name.1</tt> to <tt>name.2</tt>, and so on. Rolling
+ * happens on the background thread, so logging threads keep filling the other buffer meanwhile.
+ */
+public class RollingFileHandler extends Handler {
+	/**
+	 * The default size, in bytes, of each of the two batch buffers
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+	/**
+	 * The default number of records to collect before writing a batch
+	 */
+	public static final int DEFAULT_FLUSH_RECORDS = 512;
+	/**
+	 * The default maximum time, in milliseconds, a record waits before its batch is written
+	 */
+	public static final long DEFAULT_FLUSH_MILLIS = 200;
+	/**
+	 * The default level at which a record causes its batch to be written immediately
+	 */
+	public static final java.util.logging.Level DEFAULT_FLUSH_LEVEL = Level.SEVERE;
+	/**
+	 * The default number of rolled files to keep
+	 */
+	public static final int DEFAULT_COUNT = 10;
+	protected final Path path;
+	protected final long maxBytes;
+	protected final long rotateMillis;
+	protected final int count;
+	protected final ReentrantLock lock = new ReentrantLock();
+	protected final Condition due = lock.newCondition();
+	protected final Condition room = lock.newCondition();
+	protected final Condition written = lock.newCondition();
+	protected ByteBuffer pending;
+	protected int pendingRecords = 0;
+	protected long appended = 0;
+	protected long committed = 0;
+	protected boolean urgent = false;
+	protected boolean closed = false;
+	protected volatile int flushRecords = DEFAULT_FLUSH_RECORDS;
+	protected volatile long flushMillis = DEFAULT_FLUSH_MILLIS;
+	protected volatile java.util.logging.Level flushLevel = DEFAULT_FLUSH_LEVEL;
+	protected volatile boolean sync = false;
+	// Only touched by the background thread
+	protected ByteBuffer spare;
+	protected FileChannel channel;
+	protected long size;
+	protected long openedAt;
+	protected final Thread committer;
+	/**
+	 * Log to the given file, rolling it at 10MB and keeping the default number of old files
+	 *
+	 * @param file
+	 *        the file to log to
+	 * @throws IOException
+	 *         if the file can't be opened
+	 */
+	public RollingFileHandler(String file) throws IOException {
+		this(Paths.get(file), 10L * 1024 * 1024, 0, DEFAULT_COUNT);
+	}
+	/**
+	 * Log to the given file, rolling it when it gets too big or too old
+	 *
+	 * @param file
+	 *        the file to log to
+	 * @param limit
+	 *        roll the file before it would grow past this many bytes (<tt>0</tt> for no limit);
+	 *        batches are never split, so a file holding a single large batch may be bigger
+	 * @param interval
+	 *        roll the file once it's been open this many milliseconds (<tt>0</tt> for no limit)
+	 * @param keep
+	 *        how many rolled files to keep
+	 * @throws IOException
+	 *         if the file can't be opened
+	 */
+	public RollingFileHandler(Path file, long limit, long interval, int keep) throws IOException {
+		super();
+		if (keep < 1) {
+			throw new IllegalArgumentException("Must keep at least one rolled file, got " + keep);
+		}
+		path = file.toAbsolutePath();
+		maxBytes = Math.max(0, limit);
+		rotateMillis = Math.max(0, interval);
+		count = keep;
+		pending = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+		spare = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+		setFormatter(new MagicFormatter());
+		open();
+		committer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				commitLoop();
+			}
+		}, "RollingFileHandler-" + path.getFileName());
+		committer.setDaemon(true);
+		committer.start();
+	}
+	/**
+	 * @param records
+	 *        write a batch once this many records are pending (<tt>0</tt> to disable)
+	 */
+	public void setFlushRecords(int records) {
+		flushRecords = Math.max(0, records);
+	}
+	/**
+	 * @param millis
+	 *        write a batch once its oldest record has waited this long (<tt>0</tt> to disable)
+	 */
+	public void setFlushMillis(long millis) {
+		flushMillis = Math.max(0, millis);
+		signal();
+	}
+	/**
+	 * @param level
+	 *        write a batch immediately when a record at or above this level is added
+	 *        (<code>null</code> to disable)
+	 */
+	public void setFlushLevel(java.util.logging.Level level) {
+		flushLevel = level == null ? Level.OFF : level;
+	}
+	/**
+	 * @param force
+	 *        whether to force each batch to disk (with {@link FileChannel#force(boolean)}) after
+	 *        writing it
+	 */
+	public void setSync(boolean force) {
+		sync = force;
+	}
+	/**
+	 * Format and encode a record on the calling thread, then add it to the pending batch
+	 */
+	@Override
+	public void publish(LogRecord rec) {
+		if (!isLoggable(rec)) {
+			return;
+		}
+		ByteBuffer encoded;
+		try {
+			encoded = RecordEncoder.get().encode(getFormatter(), rec);
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		boolean now = rec.getLevel().intValue() >= flushLevel.intValue() && flushLevel != Level.OFF;
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			if (encoded.remaining() > pending.capacity()) {
+				// Oversized record; make sure it will fit once the current batch is out
+				waitForRoom(pending.capacity());
+				pending = grow(pending, encoded.remaining());
+			}
+			waitForRoom(encoded.remaining());
+			if (closed) {
+				return;
+			}
+			pending.put(encoded);
+			++pendingRecords;
+			++appended;
+			int batch = flushRecords;
+			if (now || (batch > 0 && pendingRecords >= batch)) {
+				urgent = true;
+				due.signal();
+			}
+			else if (pendingRecords == 1) {
+				// Starts the flush timer
+				due.signal();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Wait until every record published so far has been written (and forced, if syncing)
+	 */
+	@Override
+	public void flush() {
+		lock.lock();
+		try {
+			long target = appended;
+			urgent = true;
+			due.signal();
+			while (committed < target && committer.isAlive()) {
+				written.awaitUninterruptibly();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Write out everything still pending and close the file
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			due.signal();
+			room.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+		boolean interrupted = false;
+		while (committer.isAlive()) {
+			try {
+				committer.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		try {
+			closeFile();
+		}
+		catch (IOException e) {
+			reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	/**
+	 * Wait until the pending buffer has room for the given number of bytes, waking the background
+	 * thread to make some if necessary; must be called while holding the lock
+	 *
+	 * @param needed
+	 *        the number of bytes that need to fit
+	 */
+	protected void waitForRoom(int needed) {
+		while (pending.remaining() < needed && !closed) {
+			urgent = true;
+			due.signal();
+			room.awaitUninterruptibly();
+		}
+	}
+	protected static ByteBuffer grow(ByteBuffer buf, int needed) {
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + needed));
+		buf.flip();
+		bigger.put(buf);
+		return bigger;
+	}
+	protected void signal() {
+		lock.lock();
+		try {
+			due.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * The body of the background thread: wait until the flush policy says a batch is due, swap
+	 * buffers, then write (and roll, and force) without holding the lock
+	 */
+	protected void commitLoop() {
+		while (true) {
+			ByteBuffer batch;
+			long upTo;
+			boolean last;
+			lock.lock();
+			try {
+				long firstPending = 0;
+				while (!closed && !urgent) {
+					long wait = flushMillis;
+					if (pendingRecords == 0 || wait <= 0) {
+						firstPending = 0;
+						due.awaitUninterruptibly();
+						continue;
+					}
+					if (firstPending == 0) {
+						firstPending = System.nanoTime();
+					}
+					long left = TimeUnit.MILLISECONDS.toNanos(wait) - (System.nanoTime() - firstPending);
+					if (left <= 0) {
+						break;
+					}
+					try {
+						due.awaitNanos(left);
+					}
+					catch (InterruptedException e) {
+						// Only close() stops this thread
+					}
+				}
+				urgent = false;
+				last = closed;
+				batch = pending;
+				if (spare.capacity() < batch.capacity()) {
+					spare = ByteBuffer.allocate(batch.capacity());
+				}
+				pending = spare;
+				pendingRecords = 0;
+				upTo = appended;
+				room.signalAll();
+			}
+			finally {
+				lock.unlock();
+			}
+			batch.flip();
+			try {
+				write(batch);
+			}
+			catch (IOException e) {
+				reportError(null, e, ErrorManager.WRITE_FAILURE);
+			}
+			batch.clear();
+			spare = batch;
+			lock.lock();
+			try {
+				committed = upTo;
+				written.signalAll();
+			}
+			finally {
+				lock.unlock();
+			}
+			if (last) {
+				return;
+			}
+		}
+	}
+	/**
+	 * Write one batch, rolling the file first if it's due; only called from the background
+	 * thread
+	 *
+	 * @param batch
+	 *        the encoded records to write
+	 * @throws IOException
+	 *         if the batch couldn't be written
+	 */
+	protected void write(ByteBuffer batch) throws IOException {
+		if (!batch.hasRemaining()) {
+			return;
+		}
+		boolean tooBig = maxBytes > 0 && size > 0 && size + batch.remaining() > maxBytes;
+		boolean tooOld = rotateMillis > 0 && CoarseClock.currentTimeMillis() - openedAt >= rotateMillis;
+		if (tooBig || tooOld) {
+			roll();
+		}
+		while (batch.hasRemaining()) {
+			size += channel.write(batch);
+		}
+		if (sync) {
+			channel.force(false);
+		}
+	}
+	/**
+	 * Close the current file, shift the old ones along, and start a new one. If the files can't be
+	 * closed or renamed, the error is reported and the current file is reopened for appending, so
+	 * records keep being written; the roll is tried again the next time one is due.
+	 *
+	 * @throws IOException
+	 *         if the file couldn't be reopened
+	 */
+	protected void roll() throws IOException {
+		try {
+			closeFile();
+			for (int i = count - 1; i >= 1; --i) {
+				Path older = rolled(i);
+				if (Files.exists(older)) {
+					Files.move(older, rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			Files.move(path, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			reportError("Couldn't roll " + path, e, ErrorManager.GENERIC_FAILURE);
+		}
+		finally {
+			// Whether or not the renames worked, there has to be an open file to write to
+			open();
+		}
+	}
+	protected Path rolled(int n) {
+		return path.resolveSibling(path.getFileName() + "." + n);
+	}
+	protected void open() throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		size = channel.size();
+		openedAt = CoarseClock.currentTimeMillis();
+		Formatter fmt = getFormatter();
+		String head = fmt == null ? "" : fmt.getHead(this);
+		if (!head.isEmpty()) {
+			ByteBuffer buf = RecordEncoder.get().encode(head);
+			while (buf.hasRemaining()) {
+				size += channel.write(buf);
+			}
+		}
+	}
+	protected void closeFile() throws IOException {
+		if (channel == null || !channel.isOpen()) {
+			return;
+		}
+		try {
+			Formatter fmt = getFormatter();
+			String tail = fmt == null ? "" : fmt.getTail(this);
+			if (!tail.isEmpty()) {
+				ByteBuffer buf = RecordEncoder.get().encode(tail);
+				while (buf.hasRemaining()) {
+					size += channel.write(buf);
+				}
+			}
+			if (sync) {
+				channel.force(true);
+			}
+		}
+		finally {
+			channel.close();
+		}
+	}
+}
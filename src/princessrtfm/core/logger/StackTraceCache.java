@@ -0,0 +1,286 @@
+package princessrtfm.core.logger;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Renders stack traces for {@link MagicFormatter}, in the same layout as
+ * {@link Throwable#printStackTrace()} (causes, suppressed exceptions, and circular references
+ * included), caching the rendered frames by the structure of the exception: the type of each
+ * exception involved, how they're connected, and their frames. Messages aren't part of the
+ * structure, so a storm of the same exception with different messages only renders its frames
+ * once. Each structure also gets a small id, so repeats can be logged as a one line reference
+ * instead.<br/>
+ * <br/>
+ * Only the top few frames of each exception go into the hash, so looking a structure up costs
+ * little more than comparing it with the one cached; types are held by name, so the cache doesn't
+ * keep classes (or their class loaders) alive.
+ */
+final class StackTraceCache {
+	/**
+	 * The most structures to remember; exceptions with new structures beyond this are rendered
+	 * every time, and never get an id
+	 */
+	static final int MAX_CACHED = 1024;
+	/**
+	 * The most exceptions (causes and suppressed exceptions, at any depth) followed from the one
+	 * being logged
+	 */
+	static final int MAX_CAUSES = 64;
+	/**
+	 * How many of the top frames of each exception are hashed
+	 */
+	static final int HASHED_FRAMES = 8;
+	static final String CAUSE_CAPTION = "Caused by: ";
+	static final String SUPPRESSED_CAPTION = "Suppressed: ";
+	private static final StackTraceElement[] NO_FRAMES = new StackTraceElement[0];
+	/**
+	 * One exception in the order {@link Throwable#printStackTrace()} writes them
+	 */
+	private static final class Node {
+		final Throwable thrown;
+		/**
+		 * The index of the node this one is a cause or suppressed exception of, or <tt>-1</tt>
+		 */
+		final int enclosing;
+		final boolean suppressed;
+		/**
+		 * Whether this exception was already written higher up
+		 */
+		final boolean circular;
+		final String prefix;
+		final StackTraceElement[] frames;
+		Node(Throwable t, int outer, boolean isSuppressed, boolean isCircular, String indent) {
+			thrown = t;
+			enclosing = outer;
+			suppressed = isSuppressed;
+			circular = isCircular;
+			prefix = indent;
+			frames = isCircular ? NO_FRAMES : t.getStackTrace();
+		}
+		String caption() {
+			return enclosing < 0 ? "" : suppressed ? SUPPRESSED_CAPTION : CAUSE_CAPTION;
+		}
+	}
+	/**
+	 * The structure of an exception, its causes, and its suppressed exceptions
+	 */
+	private static final class Shape {
+		final String[] types;
+		/**
+		 * How each node is connected: the enclosing node's index, whether it's suppressed, and
+		 * whether it's circular
+		 */
+		final int[] links;
+		final StackTraceElement[][] frames;
+		final int hash;
+		Shape(List<Node> nodes) {
+			int count = nodes.size();
+			types = new String[count];
+			links = new int[count];
+			frames = new StackTraceElement[count][];
+			int h = 1;
+			for (int i = 0; i < count; ++i) {
+				Node node = nodes.get(i);
+				types[i] = node.thrown.getClass().getName();
+				links[i] = (node.enclosing + 1) << 2 | (node.suppressed ? 2 : 0) | (node.circular ? 1 : 0);
+				frames[i] = node.frames;
+				h = 31 * h + types[i].hashCode();
+				h = 31 * h + links[i];
+				h = 31 * h + frames[i].length;
+				for (int f = 0; f < frames[i].length && f < HASHED_FRAMES; ++f) {
+					h = 31 * h + frames[i][f].hashCode();
+				}
+			}
+			hash = h;
+		}
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Shape)) {
+				return false;
+			}
+			Shape that = (Shape) other;
+			return hash == that.hash && Arrays.equals(links, that.links) && Arrays.equals(types, that.types) && Arrays.deepEquals(frames, that.frames);
+		}
+	}
+	/**
+	 * The rendered frames for one structure
+	 */
+	static final class Rendered {
+		/**
+		 * The id of this structure, or <tt>0</tt> if it isn't cached
+		 */
+		final int id;
+		/**
+		 * The rendered frames of each exception, in the order they're written, one
+		 * <tt>\tat ...</tt> line per frame (indented for suppressed exceptions, and without a
+		 * trailing newline), ending with <tt>\t... N more</tt> for exceptions that share frames
+		 * with the one enclosing them
+		 */
+		final String[] blocks;
+		/**
+		 * Whether this structure has already been written out in full using
+		 * {@link MagicFormatter.FormatCode#STACK_TRACE_ONCE}; only ever goes from <code>false</code>
+		 * to <code>true</code>
+		 */
+		volatile boolean shown = false;
+		Rendered(int n, String[] b) {
+			id = n;
+			blocks = b;
+		}
+	}
+	private final ConcurrentMap<Shape, Rendered> cache = new ConcurrentHashMap<Shape, Rendered>();
+	private final AtomicInteger ids = new AtomicInteger();
+	/**
+	 * @param thrown
+	 *        the exception to look up
+	 * @return the rendered frames for the exception's structure, rendering them if they haven't
+	 *         been already
+	 */
+	Rendered lookup(Throwable thrown) {
+		return lookup(flatten(thrown));
+	}
+	/**
+	 * Write the full stack trace of an exception
+	 *
+	 * @param out
+	 *        the buffer to write to
+	 * @param thrown
+	 *        the exception
+	 * @return the rendered structure that was used
+	 */
+	Rendered appendTrace(StringBuilder out, Throwable thrown) {
+		List<Node> nodes = flatten(thrown);
+		Rendered rendered = lookup(nodes);
+		append(out, nodes, rendered);
+		return rendered;
+	}
+	/**
+	 * Write the full stack trace of an exception, followed by its id, the first time its
+	 * structure is seen, and only a reference to that id after that
+	 *
+	 * @param out
+	 *        the buffer to write to
+	 * @param thrown
+	 *        the exception
+	 */
+	void appendTraceOnce(StringBuilder out, Throwable thrown) {
+		List<Node> nodes = flatten(thrown);
+		Rendered rendered = lookup(nodes);
+		if (rendered.id != 0 && rendered.shown) {
+			out.append(thrown).append(" (stack trace seen before, id=").append(rendered.id).append(')');
+			return;
+		}
+		append(out, nodes, rendered);
+		if (rendered.id != 0) {
+			rendered.shown = true;
+			out.append("\n\t(stack trace id=").append(rendered.id).append(')');
+		}
+	}
+	private Rendered lookup(List<Node> nodes) {
+		Shape shape = new Shape(nodes);
+		Rendered found = cache.get(shape);
+		if (found != null) {
+			return found;
+		}
+		if (cache.size() >= MAX_CACHED) {
+			return new Rendered(0, render(nodes));
+		}
+		Rendered fresh = new Rendered(ids.incrementAndGet(), render(nodes));
+		found = cache.putIfAbsent(shape, fresh);
+		return found == null ? fresh : found;
+	}
+	private static void append(StringBuilder out, List<Node> nodes, Rendered rendered) {
+		for (int i = 0; i < nodes.size() && i < rendered.blocks.length; ++i) {
+			Node node = nodes.get(i);
+			if (i > 0) {
+				out.append('\n');
+			}
+			out.append(node.prefix).append(node.caption());
+			if (node.circular) {
+				out.append("[CIRCULAR REFERENCE: ").append(node.thrown).append(']');
+			}
+			else {
+				out.append(node.thrown);
+			}
+			if (!rendered.blocks[i].isEmpty()) {
+				out.append('\n').append(rendered.blocks[i]);
+			}
+		}
+	}
+	/**
+	 * @return the exception and everything it refers to, in the order
+	 *         {@link Throwable#printStackTrace()} writes them
+	 */
+	private static List<Node> flatten(Throwable thrown) {
+		List<Node> nodes = new ArrayList<Node>(4);
+		flatten(nodes, thrown, -1, false, "");
+		return nodes;
+	}
+	private static void flatten(List<Node> nodes, Throwable thrown, int enclosing, boolean suppressed, String prefix) {
+		if (nodes.size() >= MAX_CAUSES) {
+			return;
+		}
+		for (Node seen : nodes) {
+			if (seen.thrown == thrown) {
+				nodes.add(new Node(thrown, enclosing, suppressed, true, prefix));
+				return;
+			}
+		}
+		int self = nodes.size();
+		nodes.add(new Node(thrown, enclosing, suppressed, false, prefix));
+		for (Throwable hidden : thrown.getSuppressed()) {
+			flatten(nodes, hidden, self, true, prefix + "\t");
+		}
+		Throwable cause = thrown.getCause();
+		if (cause != null) {
+			flatten(nodes, cause, self, false, prefix);
+		}
+	}
+	private static String[] render(List<Node> nodes) {
+		String[] blocks = new String[nodes.size()];
+		StringBuilder sb = new StringBuilder(1024);
+		for (int i = 0; i < blocks.length; ++i) {
+			sb.setLength(0);
+			Node node = nodes.get(i);
+			StackTraceElement[] mine = node.frames;
+			int unique = mine.length;
+			if (node.enclosing >= 0) {
+				// Frames shared with the enclosing trace are summarized, as printStackTrace() does
+				StackTraceElement[] enclosing = nodes.get(node.enclosing).frames;
+				int m = mine.length - 1;
+				int n = enclosing.length - 1;
+				while (m >= 0 && n >= 0 && mine[m].equals(enclosing[n])) {
+					--m;
+					--n;
+				}
+				unique = m + 1;
+			}
+			for (int f = 0; f < unique; ++f) {
+				if (f > 0) {
+					sb.append('\n');
+				}
+				sb.append(node.prefix).append("\tat ").append(mine[f]);
+			}
+			int common = mine.length - unique;
+			if (common > 0) {
+				if (unique > 0) {
+					sb.append('\n');
+				}
+				sb.append(node.prefix).append("\t... ").append(common).append(" more");
+			}
+			blocks[i] = sb.toString();
+		}
+		return blocks;
+	}
+}
@@ -0,0 +1,58 @@
+package princessrtfm.core.logger;
+
+
+import java.util.Locale;
+
+import princessrtfm.core.util.Datetime;
+
+
+/**
+ * A compiled custom timestamp pattern, as used by {@link MagicFormatter}'s
+ * <tt>&amp;date|...&amp;</tt> codes. The pattern is compiled once, when the format is compiled,
+ * rather than on every record, and kept here rather than in {@link Datetime}'s bounded cache, so
+ * it's never compiled again however many other patterns are in use; the formatting itself belongs
+ * to {@link Datetime.CompiledPattern}.
+ */
+final class StampFormat {
+	/**
+	 * The {@link java.text.SimpleDateFormat} pattern
+	 */
+	final String pattern;
+	/**
+	 * The pattern, compiled for the default locale at the time
+	 */
+	final Datetime.CompiledPattern compiled;
+	private StampFormat(String fmt) {
+		pattern = fmt;
+		compiled = Datetime.compile(fmt);
+	}
+	/**
+	 * Compile a pattern
+	 *
+	 * @param pattern
+	 *        the {@link java.text.SimpleDateFormat} pattern
+	 * @return the compiled pattern
+	 * @throws IllegalArgumentException
+	 *         if the pattern isn't valid
+	 */
+	static StampFormat of(String pattern) {
+		return new StampFormat(pattern);
+	}
+	/**
+	 * Format a date with this pattern, appending the result to a buffer
+	 *
+	 * @param date
+	 *        the date to format
+	 * @param out
+	 *        the buffer to append to
+	 */
+	void formatTo(Datetime date, StringBuilder out) {
+		if (compiled.getLocale().equals(Locale.getDefault(Locale.Category.FORMAT))) {
+			compiled.formatTo(date, out);
+		}
+		else {
+			// The default locale has changed since; Datetime compiles (and caches) it for the new one
+			date.format(pattern, out);
+		}
+	}
+}
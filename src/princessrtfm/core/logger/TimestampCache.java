@@ -0,0 +1,129 @@
+package princessrtfm.core.logger;
+
+
+import java.util.Calendar;
+
+import princessrtfm.core.util.Datetime;
+
+
+/**
+ * Pre-rendered date/time fragments for {@link MagicFormatter}, so that records logged within the
+ * same second (or the same day, for the date parts) just copy strings that were already built
+ * instead of running a dozen {@link Datetime} getters each.<br/>
+ * <br/>
+ * Snapshots are immutable, and the current one is published through a volatile field, so any
+ * number of threads can format at once. Two threads crossing a boundary together may both build
+ * the new snapshot; one of them wins and the other is simply garbage.
+ */
+final class TimestampCache {
+	/**
+	 * The parts of a timestamp that only change once a day
+	 */
+	static final class Day {
+		/**
+		 * First millisecond of this day, inclusive
+		 */
+		final long start;
+		/**
+		 * First millisecond of the next day, exclusive
+		 */
+		final long end;
+		final String year;
+		final String shortYear;
+		final String month;
+		final String monthName;
+		final String shortMonthName;
+		final String day;
+		final String yearDay;
+		final String dayName;
+		final String shortDayName;
+		final String dateISO;
+		final String ordinalISO;
+		// There's a magic format code for the short year, which is deprecated in Datetime.
+		@SuppressWarnings("deprecation")
+		Day(long millis) {
+			Calendar cal = Calendar.getInstance();
+			cal.setTimeInMillis(millis);
+			cal.set(Calendar.HOUR_OF_DAY, 0);
+			cal.set(Calendar.MINUTE, 0);
+			cal.set(Calendar.SECOND, 0);
+			cal.set(Calendar.MILLISECOND, 0);
+			start = cal.getTimeInMillis();
+			cal.add(Calendar.DAY_OF_MONTH, 1);
+			end = cal.getTimeInMillis();
+			Datetime now = new Datetime(millis);
+			year = now.getLongYear();
+			shortYear = now.getShortYear();
+			month = now.getMonth();
+			monthName = now.getLongMonth();
+			shortMonthName = now.getShortMonth();
+			day = now.getDay();
+			yearDay = now.getDayOfYear();
+			dayName = now.getDayName();
+			shortDayName = now.getShortDayName();
+			dateISO = now.dateISO();
+			ordinalISO = now.ordinalISO();
+		}
+		boolean contains(long millis) {
+			return millis >= start && millis < end;
+		}
+	}
+	/**
+	 * The parts of a timestamp that change once a second
+	 */
+	static final class Second {
+		/**
+		 * First millisecond of this second, inclusive
+		 */
+		final long start;
+		final Day day;
+		final String hour12;
+		final String hour24;
+		final String minute;
+		final String second;
+		final String timezone;
+		final String timeISO;
+		final String stampISO;
+		final boolean am;
+		Second(long millis, Day today) {
+			start = Math.floorDiv(millis, 1000L) * 1000L;
+			day = today;
+			Datetime now = new Datetime(millis);
+			hour12 = now.getHour12();
+			hour24 = now.getHour24();
+			minute = now.getMinute();
+			second = now.getSecond();
+			// The offset can change in the middle of a day, so it lives here rather than in Day
+			timezone = now.getTimezone();
+			timeISO = now.timeISO();
+			stampISO = day.dateISO + "T" + timeISO;
+			am = now.isAM();
+		}
+		boolean contains(long millis) {
+			return millis >= start && millis - start < 1000L;
+		}
+	}
+	private static volatile Second current;
+	private TimestampCache() {}
+	/**
+	 * Get the fragments for the given time, building (and publishing) a new snapshot only if the
+	 * cached one is for a different second
+	 *
+	 * @param millis
+	 *        the time, in milliseconds since the epoch
+	 * @return the fragments for that time
+	 */
+	static Second at(long millis) {
+		Second cached = current;
+		if (cached != null && cached.contains(millis)) {
+			return cached;
+		}
+		Day today = cached != null && cached.day.contains(millis) ? cached.day : new Day(millis);
+		Second fresh = new Second(millis, today);
+		// Don't let a thread holding an older timestamp roll the cache backwards
+		if (cached == null || fresh.start > cached.start) {
+			current = fresh;
+		}
+		return fresh;
+	}
+}
@@ -0,0 +1,135 @@
+package princessrtfm.core.util;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * An optional, cheap, low precision clock. Once {@link #start()}ed, a background thread reads the
+ * system clock every so often (ten milliseconds by default) and publishes the time, along with
+ * the ISO 8601 stamp for it, so reading the time is a single field read and the stamp never has to
+ * be formatted by the caller.<br/>
+ * <br/>
+ * Until it's started, or after it's stopped, {@link #currentTimeMillis()} simply reads the system
+ * clock. {@link Datetime#now()} and the default {@link RNG} seed use this clock, as do the time
+ * checks in the logging handlers; none of them need more than coarse precision.
+ */
+public final class CoarseClock {
+	/**
+	 * The default time, in milliseconds, between ticks
+	 */
+	public static final long DEFAULT_RESOLUTION_MILLIS = 10;
+	/**
+	 * One published reading of the clock
+	 */
+	protected static final class Tick {
+		protected final long millis;
+		protected final long second;
+		protected final String stamp;
+		protected Tick(long now, Tick last) {
+			millis = now;
+			second = Math.floorDiv(now, 1000);
+			// The stamp only has second precision, so it's only rendered once a second
+			stamp = last != null && last.second == second ? last.stamp : new Datetime(now).stampISO();
+		}
+	}
+	private static volatile Tick tick = null;
+	private static Thread ticker = null;
+	private static long resolution = DEFAULT_RESOLUTION_MILLIS;
+	private CoarseClock() {}
+	/**
+	 * Start ticking with the default resolution, if the clock isn't already running
+	 */
+	public static synchronized void start() {
+		if (ticker == null) {
+			start(DEFAULT_RESOLUTION_MILLIS);
+		}
+	}
+	/**
+	 * Start ticking with the given resolution, restarting the clock if it's already running
+	 *
+	 * @param millis
+	 *        the time, in milliseconds, between ticks
+	 */
+	public static synchronized void start(long millis) {
+		if (millis < 1) {
+			throw new IllegalArgumentException("Resolution must be at least one millisecond, got " + millis);
+		}
+		stop();
+		resolution = millis;
+		tick = new Tick(System.currentTimeMillis(), null);
+		final long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Thread self = Thread.currentThread();
+				while (!self.isInterrupted()) {
+					LockSupport.parkNanos(nanos);
+					long now = System.currentTimeMillis();
+					Tick last = tick;
+					if (last == null || last.millis != now) {
+						tick = new Tick(now, last);
+					}
+				}
+			}
+		}, "CoarseClock");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+	/**
+	 * Stop ticking, waiting for the background thread to finish; the time is read from the system
+	 * clock again until the clock is restarted
+	 */
+	public static synchronized void stop() {
+		if (ticker == null) {
+			return;
+		}
+		Thread old = ticker;
+		ticker = null;
+		old.interrupt();
+		// Wait for the thread to finish, so it can't publish one last tick over the cleared (or a
+		// restarted clock's) one
+		boolean interrupted = false;
+		while (old.isAlive()) {
+			try {
+				old.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		tick = null;
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	/**
+	 * @return <code>true</code> if the clock is ticking
+	 */
+	public static synchronized boolean isRunning() {
+		return ticker != null;
+	}
+	/**
+	 * @return the time, in milliseconds, between ticks while the clock is running
+	 */
+	public static synchronized long getResolution() {
+		return resolution;
+	}
+	/**
+	 * @return the time of the last tick, which is up to one resolution behind the system clock,
+	 *         or the system clock's time if the clock isn't running
+	 */
+	public static long currentTimeMillis() {
+		Tick last = tick;
+		return last == null ? System.currentTimeMillis() : last.millis;
+	}
+	/**
+	 * @return the ISO 8601 date/time of the last tick, as from {@link Datetime#stampISO()}, or of
+	 *         the system clock's time if the clock isn't running
+	 */
+	public static String stampISO() {
+		Tick last = tick;
+		return last == null ? new Datetime(System.currentTimeMillis()).stampISO() : last.stamp;
+	}
+}
@@ -1,12 +1,38 @@
 package princessrtfm.core.util;
 
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
 
 
 /**
- * Convenience class for formatting date/time objects
+ * Convenience class for formatting date/time objects<br/>
+ * <br/>
+ * Formatting is done with shared, immutable {@link DateTimeFormatter}s rather than a new
+ * {@link SimpleDateFormat} per call, but patterns still mean what they mean to
+ * {@link SimpleDateFormat}, and the output is the same. Times outside the range the two agree on
+ * (see {@link #MODERN_FROM}) are still formatted by {@link SimpleDateFormat}. The default time
+ * zone's offsets are cached, so {@link #resetZoneCache()} must be called after changing it.
  *
  * @since 1.0.0-alpha.1
  */
@@ -151,7 +177,309 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public static final String FMT_TIMEZONE_ISO_COLON = "XXX";
+	/**
+	 * The most patterns {@link #format(String)} keeps compiled; patterns beyond this are compiled
+	 * on every call
+	 */
+	public static final int MAX_CACHED_PATTERNS = 256;
+	/**
+	 * The formatters behind the getters, for one locale; they're immutable and thread safe, and
+	 * only rebuilt if the default locale changes
+	 */
+	protected static final class Formats {
+		protected final Locale locale;
+		protected final DateTimeFormatter yearShort;
+		protected final DateTimeFormatter yearLong;
+		protected final DateTimeFormatter month;
+		protected final DateTimeFormatter monthShort;
+		protected final DateTimeFormatter monthLong;
+		protected final DateTimeFormatter dayMonth;
+		protected final DateTimeFormatter dayYear;
+		protected final DateTimeFormatter dayShort;
+		protected final DateTimeFormatter dayLong;
+		protected final DateTimeFormatter hour12;
+		protected final DateTimeFormatter hour24;
+		protected final DateTimeFormatter minute;
+		protected final DateTimeFormatter second;
+		protected final DateTimeFormatter ampm;
+		protected Formats(Locale l) {
+			locale = l;
+			yearShort = DateTimeFormatter.ofPattern(FMT_YEAR_SHORT, l);
+			yearLong = DateTimeFormatter.ofPattern(FMT_YEAR_LONG, l);
+			month = DateTimeFormatter.ofPattern(FMT_MONTH, l);
+			// SimpleDateFormat uses the standalone month names when there's no day in the pattern
+			monthShort = DateTimeFormatter.ofPattern("LLL", l);
+			monthLong = DateTimeFormatter.ofPattern("LLLL", l);
+			dayMonth = DateTimeFormatter.ofPattern(FMT_DAY_MONTH, l);
+			dayYear = DateTimeFormatter.ofPattern(FMT_DAY_YEAR, l);
+			dayShort = DateTimeFormatter.ofPattern(FMT_DAY_SHORT, l);
+			dayLong = DateTimeFormatter.ofPattern(FMT_DAY_LONG, l);
+			hour12 = DateTimeFormatter.ofPattern(FMT_HOUR_12, l);
+			hour24 = DateTimeFormatter.ofPattern(FMT_HOUR_24, l);
+			minute = DateTimeFormatter.ofPattern(FMT_MINUTE, l);
+			second = DateTimeFormatter.ofPattern(FMT_SECOND, l);
+			ampm = DateTimeFormatter.ofPattern(FMT_AMPM, l);
+		}
+	}
+	private static volatile Formats formats = new Formats(Locale.getDefault(Locale.Category.FORMAT));
+	/**
+	 * @return the formatters for the current default locale
+	 */
+	protected static Formats formats() {
+		Formats current = formats;
+		Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+		if (!current.locale.equals(locale)) {
+			current = new Formats(locale);
+			formats = current;
+		}
+		return current;
+	}
+	/**
+	 * A {@link SimpleDateFormat} pattern, compiled to a {@link DateTimeFormatter} when that gives
+	 * exactly the same output, with a per-thread {@link SimpleDateFormat} for when it doesn't
+	 * (because of the pattern, or because of the time being formatted). Compiled patterns are
+	 * immutable and thread safe, and belong to the default locale at the time they were compiled.
+	 *
+	 * @see Datetime#compile(String)
+	 */
+	public static final class CompiledPattern {
+		protected final Locale locale;
+		protected final DateTimeFormatter modern;
+		protected final ThreadLocal<SimpleDateFormat> legacy;
+		protected CompiledPattern(final String pattern, final Locale l) {
+			locale = l;
+			DateTimeFormatter translated = null;
+			if (isPortable(pattern)) {
+				try {
+					translated = DateTimeFormatter.ofPattern(pattern, l);
+				}
+				catch (IllegalArgumentException e) {
+					translated = null;
+				}
+			}
+			modern = translated;
+			if (translated == null) {
+				// Throws IllegalArgumentException now if the pattern isn't valid at all
+				new SimpleDateFormat(pattern, l);
+			}
+			legacy = new ThreadLocal<SimpleDateFormat>() {
+				@Override
+				protected SimpleDateFormat initialValue() {
+					return new SimpleDateFormat(pattern, l);
+				}
+			};
+		}
+		/**
+		 * @return the locale the pattern was compiled for
+		 */
+		public Locale getLocale() {
+			return locale;
+		}
+		/**
+		 * @param when
+		 *        the date to format
+		 * @return the formatted date, as {@link Datetime#format(String)} would give it
+		 */
+		public String format(Datetime when) {
+			if (modern != null && when.isModern()) {
+				return modern.format(when.zoned());
+			}
+			return legacy().format(when.date);
+		}
+		/**
+		 * @param when
+		 *        the date to format
+		 * @param out
+		 *        the buffer to append the formatted date to
+		 */
+		public void formatTo(Datetime when, StringBuilder out) {
+			if (modern != null && when.isModern()) {
+				modern.formatTo(when.zoned(), out);
+			}
+			else {
+				out.append(legacy().format(when.date));
+			}
+		}
+		/**
+		 * @return this thread's {@link SimpleDateFormat}, set to the current default time zone
+		 */
+		protected SimpleDateFormat legacy() {
+			SimpleDateFormat sdf = legacy.get();
+			// A SimpleDateFormat keeps the zone it was made with, but a new one would use the
+			// current default
+			TimeZone zone = TimeZone.getDefault();
+			if (!sdf.getTimeZone().getID().equals(zone.getID())) {
+				sdf.setTimeZone(zone);
+			}
+			return sdf;
+		}
+		/**
+		 * @param pattern
+		 *        a {@link SimpleDateFormat} pattern
+		 * @return <code>true</code> if {@link DateTimeFormatter} reads the pattern the same way
+		 */
+		protected static boolean isPortable(String pattern) {
+			boolean quoted = false;
+			boolean day = false;
+			boolean monthName = false;
+			int len = pattern.length();
+			for (int i = 0; i < len; ++i) {
+				char c = pattern.charAt(i);
+				if (c == '\'') {
+					quoted = !quoted;
+					continue;
+				}
+				if (quoted) {
+					continue;
+				}
+				if (c == '[' || c == ']' || c == '{' || c == '}' || c == '#') {
+					// Reserved or optional sections to DateTimeFormatter, plain text to
+					// SimpleDateFormat
+					return false;
+				}
+				if ( (c < 'a' || c > 'z') && (c < 'A' || c > 'Z')) {
+					continue;
+				}
+				int run = 1;
+				while (i + 1 < len && pattern.charAt(i + 1) == c) {
+					++i;
+					++run;
+				}
+				int most;
+				switch (c) {
+					case 'y':
+					case 'M':
+					case 'E':
+						most = 4;
+						break;
+					case 'D':
+					case 'X':
+						most = 3;
+						break;
+					case 'd':
+					case 'H':
+					case 'h':
+					case 'm':
+					case 's':
+						most = 2;
+						break;
+					case 'a':
+						most = 1;
+						break;
+					default:
+						// Letters like u, S, Y, k, K, z, F and G mean different things to the two
+						most = 0;
+						break;
+				}
+				if (run > most || (c == 'X' && run == 1)) {
+					// A single X is hours only to SimpleDateFormat, even in half-hour zones
+					return false;
+				}
+				day |= c == 'd';
+				monthName |= c == 'M' && run >= 3;
+			}
+			// Without a day, SimpleDateFormat switches to the standalone month names
+			return !quoted && (day || !monthName);
+		}
+	}
+	private static final ConcurrentMap<String, CompiledPattern> PATTERNS = new ConcurrentHashMap<String, CompiledPattern>();
+	/**
+	 * The layouts {@link #formatAll(long[], Layout, char)} can write
+	 */
+	public static enum Layout {
+		/**
+		 * As {@link Datetime#stampISO()}
+		 */
+		STAMP_ISO(true, true, 24, "yyyy-MM-dd'T'HH:mm:ssXX"),
+		/**
+		 * As {@link Datetime#dateISO()}
+		 */
+		DATE_ISO(true, false, 10, "yyyy-MM-dd"),
+		/**
+		 * As {@link Datetime#timeISO()}
+		 */
+		TIME_ISO(false, true, 13, "HH:mm:ssXX"),
+		/**
+		 * As {@link Datetime#ordinalISO()}
+		 */
+		ORDINAL_ISO(true, false, 8, "yyyy-DDD");
+		protected final boolean date;
+		protected final boolean time;
+		/**
+		 * The usual length of a formatted time, for sizing buffers
+		 */
+		protected final int width;
+		/**
+		 * The {@link SimpleDateFormat} pattern giving the same output, for times outside
+		 * {@link Datetime#MODERN_FROM} to {@link Datetime#MODERN_UNTIL}
+		 */
+		protected final String pattern;
+		private Layout(boolean hasDate, boolean hasTime, int chars, String fmt) {
+			date = hasDate;
+			time = hasTime;
+			width = chars;
+			pattern = fmt;
+		}
+	}
+	/**
+	 * Arrays at least this long are formatted in parallel by
+	 * {@link #formatAll(long[], Layout, char)}
+	 */
+	public static final int PARALLEL_THRESHOLD = 1 << 16;
+	protected static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+	/**
+	 * The first time (1900-01-02, UTC) formatted with java.time rather than
+	 * {@link SimpleDateFormat}. Before 1583, {@link SimpleDateFormat} uses the Julian calendar, and
+	 * before 1900 it gives zones their standard offset where java.time uses local mean time, so
+	 * only {@link SimpleDateFormat} itself gives the same output; the extra day keeps every zone's
+	 * local date on the right side.
+	 */
+	protected static final long MODERN_FROM = daysFromCivil(1900, 1, 2) * MILLIS_PER_DAY;
+	/**
+	 * The first time (9999-12-31, UTC) formatted with {@link SimpleDateFormat} again, since
+	 * java.time writes years past 9999 with a sign
+	 */
+	protected static final long MODERN_UNTIL = daysFromCivil(9999, 12, 31) * MILLIS_PER_DAY;
+	/**
+	 * A stretch of time between two of a zone's transitions, during which its offset doesn't
+	 * change
+	 */
+	protected static final class ZonePeriod {
+		protected final ZoneId zone;
+		/**
+		 * The first millisecond of the period, or {@link Long#MIN_VALUE} if there's no earlier
+		 * transition
+		 */
+		protected final long start;
+		/**
+		 * The first millisecond after the period, or {@link Long#MAX_VALUE} if there's no later
+		 * transition
+		 */
+		protected final long end;
+		protected final int offset;
+		protected ZonePeriod(ZoneId id, long millis) {
+			ZoneRules rules = id.getRules();
+			zone = id;
+			offset = rules.getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds() * 1000;
+			if (rules.isFixedOffset()) {
+				start = Long.MIN_VALUE;
+				end = Long.MAX_VALUE;
+				return;
+			}
+			// Transitions fall on whole seconds; looking one millisecond ahead makes a transition
+			// at exactly this time count as the start of the period rather than the one before it
+			ZoneOffsetTransition previous = rules.previousTransition(Instant.ofEpochMilli(millis == Long.MAX_VALUE ? millis : millis + 1));
+			ZoneOffsetTransition next = rules.nextTransition(Instant.ofEpochMilli(millis));
+			start = previous == null ? Long.MIN_VALUE : previous.getInstant().toEpochMilli();
+			end = next == null ? Long.MAX_VALUE : next.getInstant().toEpochMilli();
+		}
+		protected boolean contains(long millis) {
+			return millis >= start && millis < end;
+		}
+	}
+	private static volatile ZonePeriod cachedPeriod = null;
 	protected Date date;
+	private ZonedDateTime zoned;
 	/**
 	 * @since 1.0.0-alpha.1
 	 */
@@ -187,6 +515,59 @@ public class Datetime {
 	public void setDateObject(Date newDate) {
 		date = newDate;
 	}
+	/**
+	 * @return <code>true</code> if the wrapped date is between {@link #MODERN_FROM} and
+	 *         {@link #MODERN_UNTIL}, where java.time and {@link SimpleDateFormat} agree
+	 */
+	protected boolean isModern() {
+		long millis = date.getTime();
+		return millis >= MODERN_FROM && millis < MODERN_UNTIL;
+	}
+	/**
+	 * @param modern
+	 *        the formatter to use within the modern range
+	 * @param pattern
+	 *        the {@link SimpleDateFormat} pattern to use outside it
+	 * @return the wrapped date, formatted by whichever gives {@link SimpleDateFormat}'s output
+	 */
+	protected String field(DateTimeFormatter modern, String pattern) {
+		if (isModern()) {
+			return modern.format(zoned());
+		}
+		return compiled(pattern).legacy().format(date);
+	}
+	/**
+	 * @return the wrapped date in the same kind of calendar {@link SimpleDateFormat} uses, for
+	 *         the numeric accessors outside the modern range
+	 */
+	protected Calendar calendar() {
+		Calendar cal = Calendar.getInstance(TimeZone.getDefault(), Locale.getDefault(Locale.Category.FORMAT));
+		cal.setTime(date);
+		return cal;
+	}
+	/**
+	 * Write the wrapped date with a {@link SimpleDateFormat} pattern, for the ISO methods outside
+	 * the modern range
+	 */
+	protected <A extends Appendable> A appendLegacy(A out, String pattern) throws IOException {
+		out.append(compiled(pattern).legacy().format(date));
+		return out;
+	}
+	/**
+	 * @return the wrapped date in the default time zone, reusing the last result if neither the
+	 *         date nor the default time zone have changed since
+	 */
+	protected ZonedDateTime zoned() {
+		long millis = date.getTime();
+		ZoneId zone = ZoneId.systemDefault();
+		ZonedDateTime last = zoned;
+		if (last != null && last.getZone().equals(zone) && last.toEpochSecond() == Math.floorDiv(millis, 1000) && last.getNano() == Math.floorMod(millis, 1000) * 1000000) {
+			return last;
+		}
+		last = ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), zone);
+		zoned = last;
+		return last;
+	}
 	/**
 	 * @return the two digit year (format code "<tt>yy</tt>", returns output like "<tt>08</tt>")
 	 * @since 1.0.0-alpha.1
@@ -195,7 +576,7 @@ public class Datetime {
 	 */
 	@Deprecated
 	public String getShortYear() {
-		return new SimpleDateFormat(FMT_YEAR_SHORT).format(date);
+		return field(formats().yearShort, FMT_YEAR_SHORT);
 	}
 	/**
 	 * @return the four digit year (format code "<tt>yyyy</tt>", returns output like "<tt>2008</tt>
@@ -203,14 +584,14 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getLongYear() {
-		return new SimpleDateFormat(FMT_YEAR_LONG).format(date);
+		return field(formats().yearLong, FMT_YEAR_LONG);
 	}
 	/**
 	 * @return the month of the year (format code "<tt>MM</tt>", returns output like "<tt>04</tt>")
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getMonth() {
-		return new SimpleDateFormat(FMT_MONTH).format(date);
+		return field(formats().month, FMT_MONTH);
 	}
 	/**
 	 * @return the short name of the month (format code "<tt>MMM</tt>", returns output like "
@@ -218,7 +599,7 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getShortMonth() {
-		return new SimpleDateFormat(FMT_MONTH_SHORT).format(date);
+		return field(formats().monthShort, FMT_MONTH_SHORT);
 	}
 	/**
 	 * @return the full name of the month (format code "<tt>MMMM</tt>", returns output like "
@@ -226,21 +607,21 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getLongMonth() {
-		return new SimpleDateFormat(FMT_MONTH_LONG).format(date);
+		return field(formats().monthLong, FMT_MONTH_LONG);
 	}
 	/**
 	 * @return day of the month (format code "<tt>dd</tt>", returns output like "<tt>17</tt>")
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getDay() {
-		return new SimpleDateFormat(FMT_DAY_MONTH).format(date);
+		return field(formats().dayMonth, FMT_DAY_MONTH);
 	}
 	/**
 	 * @return day of the year (format code "<tt>DDD</tt>", returns output like "<tt>241</tt>")
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getDayOfYear() {
-		return new SimpleDateFormat(FMT_DAY_YEAR).format(date);
+		return field(formats().dayYear, FMT_DAY_YEAR);
 	}
 	/**
 	 * @return full name of the day (format code "<tt>EEEE</tt>", returns output like "
@@ -248,7 +629,7 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getDayName() {
-		return new SimpleDateFormat(FMT_DAY_LONG).format(date);
+		return field(formats().dayLong, FMT_DAY_LONG);
 	}
 	/**
 	 * @return short name of the day (format code "<tt>EEE</tt>", returns output like "<tt>Wed</tt>
@@ -256,7 +637,7 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getShortDayName() {
-		return new SimpleDateFormat(FMT_DAY_SHORT).format(date);
+		return field(formats().dayShort, FMT_DAY_SHORT);
 	}
 	/**
 	 * @return hour of the day in twelve hour format (format code "<tt>hh</tt>", returns output like
@@ -264,7 +645,7 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getHour12() {
-		return new SimpleDateFormat(FMT_HOUR_12).format(date);
+		return field(formats().hour12, FMT_HOUR_12);
 	}
 	/**
 	 * @return hour of the day in twenty four hour format (format code "<tt>HH</tt>", returns output
@@ -272,21 +653,21 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getHour24() {
-		return new SimpleDateFormat(FMT_HOUR_24).format(date);
+		return field(formats().hour24, FMT_HOUR_24);
 	}
 	/**
 	 * @return minute of the hour (format code "<tt>mm</tt>", returns output like "<tt>07</tt>")
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getMinute() {
-		return new SimpleDateFormat(FMT_MINUTE).format(date);
+		return field(formats().minute, FMT_MINUTE);
 	}
 	/**
 	 * @return second of the minute (format code "<tt>ss</tt>", returns output like "<tt>01</tt>")
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getSecond() {
-		return new SimpleDateFormat(FMT_SECOND).format(date);
+		return field(formats().second, FMT_SECOND);
 	}
 	/**
 	 * @return ISO 8601 long timezone (format code "<tt>XX</tt>", returns output like "
@@ -295,7 +676,18 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String getTimezone() {
-		return new SimpleDateFormat(FMT_TIMEZONE_ISO_LONG).format(date);
+		StringBuilder out = new StringBuilder(5);
+		try {
+			if (!isModern()) {
+				return appendLegacy(out, FMT_TIMEZONE_ISO_LONG).toString();
+			}
+			appendOffset(out, offsetAt(date.getTime()));
+		}
+		catch (IOException e) {
+			// StringBuilders don't throw
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
 	}
 	/**
 	 * @return am/pm, lowercase
@@ -303,7 +695,7 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String ampm() {
-		return new SimpleDateFormat(FMT_AMPM).format(date).toLowerCase();
+		return field(formats().ampm, FMT_AMPM).toLowerCase();
 	}
 	/**
 	 * @return AM/PM, uppercase
@@ -311,7 +703,7 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String AMPM() {
-		return new SimpleDateFormat(FMT_AMPM).format(date).toUpperCase();
+		return field(formats().ampm, FMT_AMPM).toUpperCase();
 	}
 	/**
 	 * @return am/pm, lowercase
@@ -352,7 +744,7 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public boolean isAM() {
-		return new SimpleDateFormat(FMT_AMPM).format(date).toLowerCase().startsWith("a");
+		return getHourValue() < 12;
 	}
 	/**
 	 * @return <code>true</code> if PM, <code>false</code> if AM
@@ -373,7 +765,51 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String format(String fmt) {
-		return new SimpleDateFormat(fmt).format(date);
+		return compiled(fmt).format(this);
+	}
+	/**
+	 * Format the date/time as {@link #format(String)} does, appending the result to a buffer
+	 *
+	 * @param fmt
+	 *        the {@link SimpleDateFormat} format string
+	 * @param out
+	 *        the buffer to append to
+	 * @return <code>out</code>
+	 * @throws IllegalArgumentException
+	 *         if the format string isn't valid
+	 */
+	public StringBuilder format(String fmt, StringBuilder out) {
+		compiled(fmt).formatTo(this, out);
+		return out;
+	}
+	/**
+	 * Compile a pattern once, for callers that format with the same pattern over and over and
+	 * would rather keep it themselves than look it up in the shared cache each time
+	 *
+	 * @param fmt
+	 *        a {@link SimpleDateFormat} format string
+	 * @return the pattern, compiled for the current default locale
+	 * @throws IllegalArgumentException
+	 *         if the format string isn't valid
+	 */
+	public static CompiledPattern compile(String fmt) {
+		return new CompiledPattern(fmt, Locale.getDefault(Locale.Category.FORMAT));
+	}
+	/**
+	 * @param fmt
+	 *        a {@link SimpleDateFormat} format string
+	 * @return the compiled pattern for the current default locale, from the cache if it's there
+	 */
+	protected static CompiledPattern compiled(String fmt) {
+		Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+		CompiledPattern compiled = PATTERNS.get(fmt);
+		if (compiled == null || !compiled.locale.equals(locale)) {
+			compiled = new CompiledPattern(fmt, locale);
+			if (PATTERNS.size() < MAX_CACHED_PATTERNS || PATTERNS.containsKey(fmt)) {
+				PATTERNS.put(fmt, compiled);
+			}
+		}
+		return compiled;
 	}
 	/**
 	 * @return ISO 8601 date (format code "<tt>yyyy-MM-dd</tt>", returns output like "
@@ -382,7 +818,13 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String dateISO() {
-		return new SimpleDateFormat("yyyy-MM-dd").format(date);
+		try {
+			return appendDateISO(new StringBuilder(10)).toString();
+		}
+		catch (IOException e) {
+			// StringBuilders don't throw
+			throw new IllegalStateException(e);
+		}
 	}
 	/**
 	 * @return ISO 8601 time (format code "<tt>HH:mm:ssXX</tt>", returns output like "
@@ -391,7 +833,13 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String timeISO() {
-		return new SimpleDateFormat("HH:mm:ssXX").format(date);
+		try {
+			return appendTimeISO(new StringBuilder(13)).toString();
+		}
+		catch (IOException e) {
+			// StringBuilders don't throw
+			throw new IllegalStateException(e);
+		}
 	}
 	/**
 	 * @return ISO 8601 date/time (format code "<tt>yyyy-MM-dd'T'HH:mm:ssXX</tt>", returns output
@@ -400,7 +848,7 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String stampISO() {
-		return dateISO() + "T" + timeISO();
+		return appendISO(new StringBuilder(24)).toString();
 	}
 	/**
 	 * @return ISO 8601 ordinal date (format code "<tt>yyyy-DDD</tt>", returns output like "
@@ -409,15 +857,676 @@ public class Datetime {
 	 * @since 1.0.0-alpha.1
 	 */
 	public String ordinalISO() {
-		return new SimpleDateFormat("yyyy-DDD").format(date);
+		try {
+			return appendOrdinalISO(new StringBuilder(8)).toString();
+		}
+		catch (IOException e) {
+			// StringBuilders don't throw
+			throw new IllegalStateException(e);
+		}
+	}
+	/**
+	 * Write the ISO 8601 date/time, exactly as {@link #stampISO()} returns it, without building
+	 * any intermediate strings
+	 *
+	 * @param out
+	 *        where to write the date/time
+	 * @return <code>out</code>
+	 * @throws IOException
+	 *         if <code>out</code> throws one
+	 */
+	public <A extends Appendable> A appendISO(A out) throws IOException {
+		if (!isModern()) {
+			return appendLegacy(out, Layout.STAMP_ISO.pattern);
+		}
+		long millis = date.getTime();
+		int offset = offsetAt(millis);
+		long local = millis + offset;
+		appendDate(out, Math.floorDiv(local, MILLIS_PER_DAY), false);
+		out.append('T');
+		appendTime(out, Math.floorMod(local, MILLIS_PER_DAY), offset);
+		return out;
+	}
+	/**
+	 * Write the ISO 8601 date/time, as in {@link #appendISO(Appendable)}
+	 *
+	 * @param out
+	 *        the buffer to write to
+	 * @return <code>out</code>
+	 */
+	public StringBuilder appendISO(StringBuilder out) {
+		try {
+			appendISO((Appendable) out);
+			return out;
+		}
+		catch (IOException e) {
+			// StringBuilders don't throw
+			throw new IllegalStateException(e);
+		}
+	}
+	/**
+	 * Write the ISO 8601 date, exactly as {@link #dateISO()} returns it, without building any
+	 * intermediate strings
+	 *
+	 * @param out
+	 *        where to write the date
+	 * @return <code>out</code>
+	 * @throws IOException
+	 *         if <code>out</code> throws one
+	 */
+	public <A extends Appendable> A appendDateISO(A out) throws IOException {
+		if (!isModern()) {
+			return appendLegacy(out, Layout.DATE_ISO.pattern);
+		}
+		appendDate(out, localDays(), false);
+		return out;
+	}
+	/**
+	 * Write the ISO 8601 time, exactly as {@link #timeISO()} returns it, without building any
+	 * intermediate strings
+	 *
+	 * @param out
+	 *        where to write the time
+	 * @return <code>out</code>
+	 * @throws IOException
+	 *         if <code>out</code> throws one
+	 */
+	public <A extends Appendable> A appendTimeISO(A out) throws IOException {
+		if (!isModern()) {
+			return appendLegacy(out, Layout.TIME_ISO.pattern);
+		}
+		long millis = date.getTime();
+		int offset = offsetAt(millis);
+		appendTime(out, Math.floorMod(millis + offset, MILLIS_PER_DAY), offset);
+		return out;
+	}
+	/**
+	 * Write the ISO 8601 ordinal date, exactly as {@link #ordinalISO()} returns it, without
+	 * building any intermediate strings
+	 *
+	 * @param out
+	 *        where to write the date
+	 * @return <code>out</code>
+	 * @throws IOException
+	 *         if <code>out</code> throws one
+	 */
+	public <A extends Appendable> A appendOrdinalISO(A out) throws IOException {
+		if (!isModern()) {
+			return appendLegacy(out, Layout.ORDINAL_ISO.pattern);
+		}
+		appendDate(out, localDays(), true);
+		return out;
+	}
+	/**
+	 * Write <tt>yyyy-MM-dd</tt> or <tt>yyyy-DDD</tt> for a day
+	 *
+	 * @param out
+	 *        where to write the date
+	 * @param days
+	 *        days since 1970-01-01, in local time, within the modern range
+	 * @param ordinal
+	 *        <code>true</code> for the ordinal form
+	 * @throws IOException
+	 *         if <code>out</code> throws one
+	 */
+	protected static void appendDate(Appendable out, long days, boolean ordinal) throws IOException {
+		long ymd = civil(days);
+		long year = ymd >> 9;
+		appendDigits(out, (int) year, 4);
+		out.append('-');
+		if (ordinal) {
+			appendDigits(out, (int) (days - daysFromCivil(year, 1, 1)) + 1, 3);
+		}
+		else {
+			appendDigits(out, (int) (ymd >> 5 & 0xF), 2);
+			out.append('-');
+			appendDigits(out, (int) (ymd & 0x1F), 2);
+		}
+	}
+	/**
+	 * Write <tt>HH:mm:ssXX</tt>
+	 *
+	 * @param out
+	 *        where to write the time
+	 * @param millisOfDay
+	 *        milliseconds since local midnight
+	 * @param offset
+	 *        the zone offset, in milliseconds
+	 * @throws IOException
+	 *         if <code>out</code> throws one
+	 */
+	protected static void appendTime(Appendable out, long millisOfDay, int offset) throws IOException {
+		int seconds = (int) (millisOfDay / 1000);
+		appendDigits(out, seconds / 3600, 2);
+		out.append(':');
+		appendDigits(out, seconds / 60 % 60, 2);
+		out.append(':');
+		appendDigits(out, seconds % 60, 2);
+		appendOffset(out, offset);
+	}
+	/**
+	 * Write an offset as <tt>XX</tt> does: <tt>Z</tt> for UTC, otherwise a sign, the hours, and the
+	 * minutes
+	 *
+	 * @param out
+	 *        where to write the offset
+	 * @param offset
+	 *        the zone offset, in milliseconds
+	 * @throws IOException
+	 *         if <code>out</code> throws one
+	 */
+	protected static void appendOffset(Appendable out, int offset) throws IOException {
+		int offsetMinutes = offset / 60000;
+		if (offsetMinutes == 0) {
+			out.append('Z');
+			return;
+		}
+		out.append(offset < 0 ? '-' : '+');
+		offsetMinutes = Math.abs(offsetMinutes);
+		appendDigits(out, offsetMinutes / 60, 2);
+		appendDigits(out, offsetMinutes % 60, 2);
+	}
+	/**
+	 * Write a non-negative number, zero padded to a fixed width
+	 */
+	protected static void appendDigits(Appendable out, int value, int width) throws IOException {
+		int divisor = 1;
+		for (int i = 1; i < width; ++i) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			out.append((char) ('0' + value / divisor % 10));
+		}
+	}
+	/**
+	 * @return the year, as a number (like {@link #getLongYear()})
+	 */
+	public int getYearValue() {
+		if (!isModern()) {
+			return calendar().get(Calendar.YEAR);
+		}
+		return (int) (civil(localDays()) >> 9);
+	}
+	/**
+	 * @return the month of the year, from <tt>1</tt> (January) to <tt>12</tt> (December)
+	 */
+	public int getMonthValue() {
+		if (!isModern()) {
+			return calendar().get(Calendar.MONTH) + 1;
+		}
+		return (int) (civil(localDays()) >> 5 & 0xF);
+	}
+	/**
+	 * @return the day of the month, from <tt>1</tt> to <tt>31</tt>
+	 */
+	public int getDayValue() {
+		if (!isModern()) {
+			return calendar().get(Calendar.DAY_OF_MONTH);
+		}
+		return (int) (civil(localDays()) & 0x1F);
+	}
+	/**
+	 * @return the day of the year, from <tt>1</tt> to <tt>366</tt>
+	 */
+	public int getDayOfYearValue() {
+		if (!isModern()) {
+			return calendar().get(Calendar.DAY_OF_YEAR);
+		}
+		long days = localDays();
+		return (int) (days - daysFromCivil(civil(days) >> 9, 1, 1)) + 1;
+	}
+	/**
+	 * @return the hour of the day, from <tt>0</tt> to <tt>23</tt>
+	 */
+	public int getHourValue() {
+		if (!isModern()) {
+			return calendar().get(Calendar.HOUR_OF_DAY);
+		}
+		return (int) (localMillisOfDay() / (60 * 60 * 1000));
+	}
+	/**
+	 * @return the minute of the hour, from <tt>0</tt> to <tt>59</tt>
+	 */
+	public int getMinuteValue() {
+		if (!isModern()) {
+			return calendar().get(Calendar.MINUTE);
+		}
+		return (int) (localMillisOfDay() / (60 * 1000) % 60);
+	}
+	/**
+	 * @return the second of the minute, from <tt>0</tt> to <tt>59</tt>
+	 */
+	public int getSecondValue() {
+		if (!isModern()) {
+			return calendar().get(Calendar.SECOND);
+		}
+		return (int) (localMillisOfDay() / 1000 % 60);
+	}
+	/**
+	 * @return the wrapped time, shifted by the default zone's offset so that it counts
+	 *         milliseconds since the epoch in local time
+	 */
+	protected long localMillis() {
+		long millis = date.getTime();
+		return millis + offsetAt(millis);
+	}
+	protected long localDays() {
+		return Math.floorDiv(localMillis(), MILLIS_PER_DAY);
+	}
+	protected long localMillisOfDay() {
+		return Math.floorMod(localMillis(), MILLIS_PER_DAY);
+	}
+	/**
+	 * Get the default zone's offset at a given time. The offset is cached for the whole period
+	 * between the zone's transitions (usually the current stretch of summer or winter time), so
+	 * for any time in that period this is just a range check; the zone's rules are only consulted
+	 * again once a transition is crossed. The zone itself is only read when the cache is empty,
+	 * since reading the default zone copies it; see {@link #resetZoneCache()}.
+	 *
+	 * @param millis
+	 *        milliseconds since the epoch
+	 * @return the offset from UTC, in milliseconds
+	 */
+	protected static int offsetAt(long millis) {
+		ZonePeriod cached = cachedPeriod;
+		if (cached != null && cached.contains(millis)) {
+			return cached.offset;
+		}
+		cached = new ZonePeriod(cached == null ? ZoneId.systemDefault() : cached.zone, millis);
+		cachedPeriod = cached;
+		return cached.offset;
+	}
+	/**
+	 * Forget the cached zone offset. This must be called after changing the default time zone
+	 * (with {@link TimeZone#setDefault(TimeZone)}); until it is, the numeric accessors, the ISO
+	 * methods, {@link #getTimezone()} and the local time forms of <tt>parseISO</tt> keep using the
+	 * old zone. Pattern formatting and the named getters aren't affected.
+	 */
+	public static void resetZoneCache() {
+		cachedPeriod = null;
+	}
+	/**
+	 * Convert a day count to a (proleptic Gregorian) date, using Howard Hinnant's
+	 * <tt>civil_from_days</tt> algorithm, which counts years from the first of March so that leap
+	 * days fall at the end
+	 *
+	 * @param days
+	 *        days since 1970-01-01
+	 * @return the year, month and day, packed as <tt>year &lt;&lt; 9 | month &lt;&lt; 5 | day</tt>
+	 */
+	protected static long civil(long days) {
+		long z = days + 719468;
+		long era = Math.floorDiv(z, 146097);
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		long day = doy - (153 * mp + 2) / 5 + 1;
+		long month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+		return year << 9 | month << 5 | day;
+	}
+	/**
+	 * The inverse of {@link #civil(long)}
+	 *
+	 * @param year
+	 *        the year
+	 * @param month
+	 *        the month, from <tt>1</tt> to <tt>12</tt>
+	 * @param day
+	 *        the day of the month
+	 * @return days since 1970-01-01
+	 */
+	protected static long daysFromCivil(long year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yoe = y - era * 400;
+		long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+	/**
+	 * Parse a date or date/time in any of the ISO 8601 forms produced by {@link #stampISO()},
+	 * {@link #dateISO()} and {@link #ordinalISO()}. Seconds may have a fraction (only
+	 * milliseconds are kept), and the offset may also be written with a colon
+	 * (<tt>-03:00</tt>). Dates without a time are taken as midnight, and times without an offset
+	 * as local time, in the default time zone.<br/>
+	 * <br/>
+	 * Nothing is allocated unless the text can't be parsed, so this is suitable for going through
+	 * large logs.
+	 *
+	 * @param text
+	 *        the text to parse
+	 * @return the time, in milliseconds since the epoch
+	 * @throws IllegalArgumentException
+	 *         if the text isn't one of the supported forms
+	 */
+	public static long parseISO(CharSequence text) {
+		return parseISO(text, 0, text.length());
+	}
+	/**
+	 * Parse part of a string, as in {@link #parseISO(CharSequence)}
+	 *
+	 * @param text
+	 *        the text containing the date
+	 * @param from
+	 *        the index of the first character of the date
+	 * @param to
+	 *        the index after the last character of the date
+	 * @return the time, in milliseconds since the epoch
+	 * @throws IllegalArgumentException
+	 *         if the text isn't one of the supported forms
+	 */
+	public static long parseISO(CharSequence text, int from, int to) {
+		return parseISO(text, null, from, to);
+	}
+	/**
+	 * Parse ASCII (or UTF-8) bytes, as in {@link #parseISO(CharSequence)}, so that lines read from
+	 * a file don't need decoding first
+	 *
+	 * @param bytes
+	 *        the bytes containing the date
+	 * @param from
+	 *        the index of the first byte of the date
+	 * @param to
+	 *        the index after the last byte of the date
+	 * @return the time, in milliseconds since the epoch
+	 * @throws IllegalArgumentException
+	 *         if the bytes aren't one of the supported forms
+	 */
+	public static long parseISO(byte[] bytes, int from, int to) {
+		return parseISO(null, bytes, from, to);
+	}
+	/**
+	 * The parser behind the public <tt>parseISO</tt> methods, reading from whichever of
+	 * <code>text</code> and <code>bytes</code> isn't <code>null</code>
+	 */
+	protected static long parseISO(CharSequence text, byte[] bytes, int from, int to) {
+		int pos = from;
+		long year = 0;
+		while (pos < to && isDigit(text, bytes, pos)) {
+			year = year * 10 + digit(text, bytes, pos++);
+		}
+		if (pos - from < 4 || pos - from > 9 || !isAt(text, bytes, pos++, to, '-')) {
+			throw unparseable(text, bytes, from, to);
+		}
+		long days;
+		if (isAt(text, bytes, pos + 2, to, '-')) {
+			int month = number(text, bytes, pos, to, 2);
+			int day = number(text, bytes, pos + 3, to, 2);
+			pos += 5;
+			if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+				throw unparseable(text, bytes, from, to);
+			}
+			days = daysFromCivil(year, month, day);
+		}
+		else {
+			int ordinal = number(text, bytes, pos, to, 3);
+			pos += 3;
+			if (ordinal < 1 || ordinal > (isLeap(year) ? 366 : 365)) {
+				throw unparseable(text, bytes, from, to);
+			}
+			days = daysFromCivil(year, 1, 1) + ordinal - 1;
+		}
+		long millis = days * MILLIS_PER_DAY;
+		if (pos == to) {
+			return utcFromLocal(millis);
+		}
+		if (!isAt(text, bytes, pos++, to, 'T')) {
+			throw unparseable(text, bytes, from, to);
+		}
+		int hour = number(text, bytes, pos, to, 2);
+		int minute = isAt(text, bytes, pos + 2, to, ':') ? number(text, bytes, pos + 3, to, 2) : -1;
+		int second = isAt(text, bytes, pos + 5, to, ':') ? number(text, bytes, pos + 6, to, 2) : -1;
+		pos += 8;
+		if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+			throw unparseable(text, bytes, from, to);
+		}
+		millis += ((hour * 60L + minute) * 60 + second) * 1000;
+		if (isAt(text, bytes, pos, to, '.') || isAt(text, bytes, pos, to, ',')) {
+			int start = ++pos;
+			int fraction = 0;
+			while (pos < to && isDigit(text, bytes, pos)) {
+				if (pos - start < 3) {
+					fraction = fraction * 10 + digit(text, bytes, pos);
+				}
+				++pos;
+			}
+			if (pos == start) {
+				throw unparseable(text, bytes, from, to);
+			}
+			for (int i = pos - start; i < 3; ++i) {
+				fraction *= 10;
+			}
+			millis += fraction;
+		}
+		if (pos == to) {
+			return utcFromLocal(millis);
+		}
+		if (isAt(text, bytes, pos, to, 'Z') && pos + 1 == to) {
+			return millis;
+		}
+		boolean ahead = isAt(text, bytes, pos, to, '+');
+		if (!ahead && !isAt(text, bytes, pos, to, '-')) {
+			throw unparseable(text, bytes, from, to);
+		}
+		int offsetHours = number(text, bytes, pos + 1, to, 2);
+		pos += 3;
+		int offsetMinutes = 0;
+		if (pos < to) {
+			if (isAt(text, bytes, pos, to, ':')) {
+				++pos;
+			}
+			offsetMinutes = number(text, bytes, pos, to, 2);
+			pos += 2;
+		}
+		if (pos != to || offsetHours < 0 || offsetHours > 18 || offsetMinutes < 0 || offsetMinutes > 59) {
+			throw unparseable(text, bytes, from, to);
+		}
+		long offset = (offsetHours * 60L + offsetMinutes) * 60 * 1000;
+		return ahead ? millis - offset : millis + offset;
+	}
+	/**
+	 * Convert local time in the default zone to UTC. Times that don't exist, because the clocks
+	 * went forward over them, are moved forward by the size of the gap (as
+	 * {@link java.time.ZonedDateTime} does).
+	 *
+	 * @param local
+	 *        milliseconds since the epoch in local time
+	 * @return milliseconds since the epoch
+	 */
+	protected static long utcFromLocal(long local) {
+		int first = offsetAt(local - offsetAt(local));
+		int second = offsetAt(local - first);
+		if (second == first) {
+			return local - first;
+		}
+		if (offsetAt(local - second) == second) {
+			return local - second;
+		}
+		// Neither offset works, so it's a gap; use the one from before it, which is the smaller
+		return local - Math.min(first, second);
+	}
+	private static boolean isDigit(CharSequence text, byte[] bytes, int at) {
+		int c = text != null ? text.charAt(at) : bytes[at];
+		return c >= '0' && c <= '9';
+	}
+	private static int digit(CharSequence text, byte[] bytes, int at) {
+		return (text != null ? text.charAt(at) : bytes[at]) - '0';
+	}
+	private static boolean isAt(CharSequence text, byte[] bytes, int at, int to, char expected) {
+		return at < to && (text != null ? text.charAt(at) : bytes[at]) == expected;
+	}
+	/**
+	 * @return the number made of exactly <code>width</code> digits starting at <code>at</code>, or
+	 *         <tt>-1</tt> if they aren't all there
+	 */
+	private static int number(CharSequence text, byte[] bytes, int at, int to, int width) {
+		if (at + width > to) {
+			return -1;
+		}
+		int n = 0;
+		for (int i = at; i < at + width; ++i) {
+			if (!isDigit(text, bytes, i)) {
+				return -1;
+			}
+			n = n * 10 + digit(text, bytes, i);
+		}
+		return n;
+	}
+	private static IllegalArgumentException unparseable(CharSequence text, byte[] bytes, int from, int to) {
+		String shown = text != null ? text.subSequence(from, to).toString() : new String(bytes, from, to - from, StandardCharsets.ISO_8859_1);
+		return new IllegalArgumentException("Not an ISO 8601 date/time: \"" + shown + "\"");
+	}
+	protected static boolean isLeap(long year) {
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+	protected static int lengthOfMonth(long year, int month) {
+		switch (month) {
+			case 2:
+				return isLeap(year) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+	/**
+	 * Format a whole array of times into one buffer, each followed by a separator. Runs of times
+	 * on the same day only have their date worked out once, and big arrays are split across the
+	 * common {@link ForkJoinPool}.
+	 *
+	 * @param millis
+	 *        the times, in milliseconds since the epoch
+	 * @param layout
+	 *        how to write each time
+	 * @param separator
+	 *        the character to write after each time
+	 * @return the formatted times
+	 */
+	public static StringBuilder formatAll(long[] millis, Layout layout, char separator) {
+		int perItem = layout.width + 1;
+		if (millis.length < PARALLEL_THRESHOLD) {
+			StringBuilder out = new StringBuilder(millis.length * perItem);
+			formatRange(millis, 0, millis.length, layout, separator, out);
+			return out;
+		}
+		int chunks = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 4);
+		int chunkSize = (millis.length + chunks - 1) / chunks;
+		List<Callable<StringBuilder>> tasks = new ArrayList<Callable<StringBuilder>>(chunks);
+		for (int start = 0; start < millis.length; start += chunkSize) {
+			final long[] all = millis;
+			final int from = start;
+			final int to = Math.min(millis.length, start + chunkSize);
+			final Layout form = layout;
+			final char sep = separator;
+			tasks.add(new Callable<StringBuilder>() {
+				@Override
+				public StringBuilder call() {
+					StringBuilder part = new StringBuilder( (to - from) * (form.width + 1));
+					formatRange(all, from, to, form, sep, part);
+					return part;
+				}
+			});
+		}
+		StringBuilder out = new StringBuilder(millis.length * perItem);
+		for (Future<StringBuilder> part : ForkJoinPool.commonPool().invokeAll(tasks)) {
+			try {
+				out.append(part.get());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while formatting", e);
+			}
+			catch (ExecutionException e) {
+				throw new IllegalStateException("Formatting failed", e.getCause());
+			}
+		}
+		return out;
+	}
+	/**
+	 * Format a stream of times, as in {@link #formatAll(long[], Layout, char)}
+	 *
+	 * @param millis
+	 *        the times, in milliseconds since the epoch
+	 * @param layout
+	 *        how to write each time
+	 * @param separator
+	 *        the character to write after each time
+	 * @return the formatted times
+	 */
+	public static StringBuilder formatAll(LongStream millis, Layout layout, char separator) {
+		return formatAll(millis.toArray(), layout, separator);
+	}
+	/**
+	 * Format part of an array of times on the calling thread, each followed by a separator
+	 *
+	 * @param millis
+	 *        the times, in milliseconds since the epoch
+	 * @param from
+	 *        the index of the first time to format
+	 * @param to
+	 *        the index after the last time to format
+	 * @param layout
+	 *        how to write each time
+	 * @param separator
+	 *        the character to write after each time
+	 * @param out
+	 *        the buffer to write to
+	 * @return <code>out</code>
+	 */
+	public static StringBuilder formatRange(long[] millis, int from, int to, Layout layout, char separator, StringBuilder out) {
+		// Each call keeps its own zone period, so parallel callers don't fight over the shared one
+		ZoneId zone = ZoneId.systemDefault();
+		ZonePeriod period = null;
+		long cachedDay = Long.MIN_VALUE;
+		StringBuilder dateText = new StringBuilder(16);
+		try {
+			for (int i = from; i < to; ++i) {
+				long t = millis[i];
+				if (t < MODERN_FROM || t >= MODERN_UNTIL) {
+					out.append(compiled(layout.pattern).legacy().format(new Date(t))).append(separator);
+					continue;
+				}
+				if (period == null || !period.contains(t)) {
+					period = new ZonePeriod(zone, t);
+				}
+				int offset = period.offset;
+				long local = t + offset;
+				long day = Math.floorDiv(local, MILLIS_PER_DAY);
+				if (layout.date) {
+					if (day != cachedDay) {
+						cachedDay = day;
+						dateText.setLength(0);
+						appendDate(dateText, day, layout == Layout.ORDINAL_ISO);
+					}
+					out.append(dateText);
+				}
+				if (layout == Layout.STAMP_ISO) {
+					out.append('T');
+				}
+				if (layout.time) {
+					appendTime(out, local - day * MILLIS_PER_DAY, offset);
+				}
+				out.append(separator);
+			}
+		}
+		catch (IOException e) {
+			// StringBuilders don't throw
+			throw new IllegalStateException(e);
+		}
+		return out;
 	}
 	/**
-	 * Get the current time
+	 * Get the current time, from the {@link CoarseClock} if it's running
 	 *
 	 * @return a Datetime object representing the current time
 	 */
 	public static final Datetime now() {
-		return new Datetime();
+		return new Datetime(CoarseClock.currentTimeMillis());
 	}
 	/**
 	 * Returns <code>this.stampISO()</code>
@@ -0,0 +1,447 @@
+package princessrtfm.core.util;
+
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * A set of <code>int</code>s, stored as sorted, non-overlapping ranges rather than individual
+ * values, so a set like <tt>1-5000000</tt> takes a couple of array slots instead of five million
+ * boxed integers. Nothing here ever boxes a value.<br/>
+ * <br/>
+ * Ranges can be added in any order; they're sorted and merged the next time the set is read, so
+ * building a set from many ranges costs one sort rather than one insertion each. Like the standard
+ * collections, this isn't safe to modify from several threads at once.
+ */
+public class IntRangeSet {
+	/**
+	 * The first value of each range
+	 */
+	protected int[] starts;
+	/**
+	 * The last value (inclusive) of each range
+	 */
+	protected int[] ends;
+	/**
+	 * The number of ranges in use
+	 */
+	protected int count = 0;
+	/**
+	 * Whether the ranges are currently sorted and merged
+	 */
+	protected boolean normal = true;
+	/**
+	 * Create an empty set
+	 */
+	public IntRangeSet() {
+		this(8);
+	}
+	/**
+	 * Create an empty set with room for a number of ranges before it needs to grow
+	 *
+	 * @param ranges
+	 *        the number of ranges to make room for
+	 */
+	public IntRangeSet(int ranges) {
+		starts = new int[Math.max(1, ranges)];
+		ends = new int[starts.length];
+	}
+	/**
+	 * Add a single value
+	 *
+	 * @param value
+	 *        the value to add
+	 * @return <tt>this</tt>
+	 */
+	public IntRangeSet add(int value) {
+		return add(value, value);
+	}
+	/**
+	 * Add every value from <code>low</code> to <code>high</code>, both inclusive; the bounds may be
+	 * given either way around
+	 *
+	 * @param low
+	 *        one end of the range
+	 * @param high
+	 *        the other end of the range
+	 * @return <tt>this</tt>
+	 */
+	public IntRangeSet add(int low, int high) {
+		if (low > high) {
+			int swap = low;
+			low = high;
+			high = swap;
+		}
+		if (normal && count > 0 && low <= ends[count - 1] + 1L) {
+			if (low >= starts[count - 1]) {
+				// Extends (or falls inside) the last range, so the set stays sorted and merged
+				ends[count - 1] = Math.max(ends[count - 1], high);
+				return this;
+			}
+			normal = false;
+		}
+		if (count == starts.length) {
+			int grown = count < Integer.MAX_VALUE / 2 ? count * 2 : Integer.MAX_VALUE - 8;
+			starts = Arrays.copyOf(starts, grown);
+			ends = Arrays.copyOf(ends, grown);
+		}
+		starts[count] = low;
+		ends[count] = high;
+		++count;
+		return this;
+	}
+	/**
+	 * Add every value in another set
+	 *
+	 * @param other
+	 *        the set to add
+	 * @return <tt>this</tt>
+	 */
+	public IntRangeSet addAll(IntRangeSet other) {
+		other.normalize();
+		for (int i = 0; i < other.count; ++i) {
+			add(other.starts[i], other.ends[i]);
+		}
+		return this;
+	}
+	/**
+	 * Remove every value
+	 *
+	 * @return <tt>this</tt>
+	 */
+	public IntRangeSet clear() {
+		count = 0;
+		normal = true;
+		return this;
+	}
+	/**
+	 * @param value
+	 *        the value to look for
+	 * @return <code>true</code> if the set contains the value
+	 */
+	public boolean contains(int value) {
+		normalize();
+		int at = Arrays.binarySearch(starts, 0, count, value);
+		if (at >= 0) {
+			return true;
+		}
+		// The range that could hold it is the last one starting before it
+		at = -at - 2;
+		return at >= 0 && value <= ends[at];
+	}
+	/**
+	 * @return <code>true</code> if the set has no values
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+	/**
+	 * @return the number of values in the set, which can be more than an <code>int</code> holds
+	 */
+	public long size() {
+		normalize();
+		long total = 0;
+		for (int i = 0; i < count; ++i) {
+			total += (long) ends[i] - starts[i] + 1;
+		}
+		return total;
+	}
+	/**
+	 * @return the number of separate ranges in the set
+	 */
+	public int rangeCount() {
+		normalize();
+		return count;
+	}
+	/**
+	 * @param index
+	 *        which range, counting from the lowest
+	 * @return the first value in the range
+	 */
+	public int rangeStart(int index) {
+		normalize();
+		checkRange(index);
+		return starts[index];
+	}
+	/**
+	 * @param index
+	 *        which range, counting from the lowest
+	 * @return the last value in the range, inclusive
+	 */
+	public int rangeEnd(int index) {
+		normalize();
+		checkRange(index);
+		return ends[index];
+	}
+	/**
+	 * @return every value in the set, in ascending order; the iterator doesn't box, as long as
+	 *         it's used through {@link PrimitiveIterator.OfInt#nextInt()}
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		normalize();
+		final int[] first = starts;
+		final int[] last = ends;
+		final int ranges = count;
+		return new PrimitiveIterator.OfInt() {
+			private int range = 0;
+			private long next = ranges > 0 ? first[0] : 0;
+			@Override
+			public boolean hasNext() {
+				return range < ranges;
+			}
+			@Override
+			public int nextInt() {
+				if (range >= ranges) {
+					throw new NoSuchElementException();
+				}
+				int value = (int) next;
+				if (next == last[range]) {
+					++range;
+					if (range < ranges) {
+						next = first[range];
+					}
+				}
+				else {
+					++next;
+				}
+				return value;
+			}
+		};
+	}
+	/**
+	 * @return a {@link Spliterator} over every value in the set, in ascending order. It works on a
+	 *         snapshot of the ranges (not the values), so later changes to the set don't affect it,
+	 *         and it splits evenly by value count, even within a single huge range, so it
+	 *         parallelizes well.
+	 */
+	public Spliterator.OfInt spliterator() {
+		normalize();
+		int[] first = Arrays.copyOf(starts, count);
+		long[] before = new long[count + 1];
+		for (int i = 0; i < count; ++i) {
+			before[i + 1] = before[i] + ((long) ends[i] - starts[i] + 1);
+		}
+		return new RangeSpliterator(first, before, 0, before[count]);
+	}
+	/**
+	 * @return a sequential stream of every value in the set, in ascending order, generated as it's
+	 *         consumed; call {@link IntStream#parallel()} on it to split the work
+	 * @see #spliterator()
+	 */
+	public IntStream stream() {
+		return StreamSupport.intStream(spliterator(), false);
+	}
+	/**
+	 * Write every value in the set, in ascending order, with a delimiter between each
+	 *
+	 * @param out
+	 *        the buffer to write to
+	 * @param delim
+	 *        the delimiter to write between values
+	 * @return <code>out</code>
+	 */
+	public StringBuilder appendTo(StringBuilder out, String delim) {
+		normalize();
+		boolean first = true;
+		for (int i = 0; i < count; ++i) {
+			int last = ends[i];
+			for (int value = starts[i];; ++value) {
+				if (!first) {
+					out.append(delim);
+				}
+				first = false;
+				out.append(value);
+				if (value == last) {
+					break;
+				}
+			}
+		}
+		return out;
+	}
+	/**
+	 * @return the ranges in the set, like "<tt>[1..5, 7, 10..12]</tt>"
+	 */
+	@Override
+	public String toString() {
+		normalize();
+		StringBuilder out = new StringBuilder("[");
+		for (int i = 0; i < count; ++i) {
+			if (i > 0) {
+				out.append(", ");
+			}
+			out.append(starts[i]);
+			if (ends[i] != starts[i]) {
+				out.append("..").append(ends[i]);
+			}
+		}
+		return out.append(']').toString();
+	}
+	@SuppressWarnings("javadoc")
+	@Override
+	public int hashCode() {
+		normalize();
+		int result = 1;
+		for (int i = 0; i < count; ++i) {
+			result = 31 * result + starts[i];
+			result = 31 * result + ends[i];
+		}
+		return result;
+	}
+	@SuppressWarnings("javadoc")
+	@Override
+	public boolean equals(Object test) {
+		if (this == test) {
+			return true;
+		}
+		if (!(test instanceof IntRangeSet)) {
+			return false;
+		}
+		IntRangeSet other = (IntRangeSet) test;
+		normalize();
+		other.normalize();
+		if (count != other.count) {
+			return false;
+		}
+		for (int i = 0; i < count; ++i) {
+			if (starts[i] != other.starts[i] || ends[i] != other.ends[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Sort the ranges and merge any that overlap or touch
+	 */
+	protected void normalize() {
+		if (normal) {
+			return;
+		}
+		// Sort by start, carrying each end along; packing both into a long keeps it to one
+		// primitive sort
+		long[] packed = new long[count];
+		for (int i = 0; i < count; ++i) {
+			packed[i] = (long) starts[i] << 32 | ends[i] & 0xFFFFFFFFL;
+		}
+		Arrays.sort(packed);
+		int merged = 0;
+		for (int i = 0; i < count; ++i) {
+			int low = (int) (packed[i] >> 32);
+			int high = (int) packed[i];
+			if (merged > 0 && low <= ends[merged - 1] + 1L) {
+				ends[merged - 1] = Math.max(ends[merged - 1], high);
+			}
+			else {
+				starts[merged] = low;
+				ends[merged] = high;
+				++merged;
+			}
+		}
+		count = merged;
+		normal = true;
+	}
+	/**
+	 * Walks the values of a snapshot of the ranges by position: the <tt>n</tt>th value overall is
+	 * found from how many values come before each range, so any stretch of positions can be split
+	 * off without looking at the values in between
+	 */
+	protected static final class RangeSpliterator implements Spliterator.OfInt {
+		private final int[] starts;
+		/**
+		 * How many values come before each range; one longer than <code>starts</code>, so the last
+		 * entry is the total
+		 */
+		private final long[] before;
+		private long position;
+		private final long fence;
+		private int range;
+		protected RangeSpliterator(int[] first, long[] counts, long from, long to) {
+			starts = first;
+			before = counts;
+			position = from;
+			fence = to;
+			range = locate(from);
+		}
+		/**
+		 * @return the index of the range holding the value at a position
+		 */
+		private int locate(long at) {
+			int low = 0;
+			int high = starts.length - 1;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (before[mid] <= at) {
+					low = mid;
+				}
+				else {
+					high = mid - 1;
+				}
+			}
+			return low;
+		}
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+			if (position >= fence) {
+				return false;
+			}
+			while (position >= before[range + 1]) {
+				++range;
+			}
+			action.accept((int) (starts[range] + (position - before[range])));
+			++position;
+			return true;
+		}
+		@Override
+		public void forEachRemaining(IntConsumer action) {
+			while (position < fence) {
+				while (position >= before[range + 1]) {
+					++range;
+				}
+				long stop = Math.min(fence, before[range + 1]);
+				int value = (int) (starts[range] + (position - before[range]));
+				long left = stop - position;
+				position = stop;
+				for (; left > 0; --left, ++value) {
+					action.accept(value);
+				}
+			}
+		}
+		@Override
+		public Spliterator.OfInt trySplit() {
+			long mid = (position + fence) >>> 1;
+			if (mid <= position) {
+				return null;
+			}
+			RangeSpliterator prefix = new RangeSpliterator(starts, before, position, mid);
+			position = mid;
+			range = locate(mid);
+			return prefix;
+		}
+		@Override
+		public long estimateSize() {
+			return fence - position;
+		}
+		@Override
+		public int characteristics() {
+			return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+		/**
+		 * @return <code>null</code>, since the values are in natural order
+		 */
+		@Override
+		public Comparator<? super Integer> getComparator() {
+			return null;
+		}
+	}
+	private void checkRange(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Range " + index + " of " + count);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package princessrtfm.core.util;
 
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -19,12 +20,24 @@ public class RNG extends Random {
 	 * Default upper bound for random ints
 	 */
 	public final int MAX;
+	/**
+	 * Stepped for every default seed, so RNGs created at the same moment still get different ones
+	 */
+	private static final AtomicLong SEED_STEP = new AtomicLong();
 	/**
 	 * Initialize the RNG with all default values
 	 *
 	 */
 	public RNG() {
-		this(Datetime.now().date.getTime());
+		this(defaultSeed());
+	}
+	/**
+	 * @return a seed from the current time, which is only as precise as the {@link CoarseClock}
+	 *         when it's running, mixed with the high resolution timer and a counter so that RNGs
+	 *         created within the same tick don't share it
+	 */
+	private static long defaultSeed() {
+		return CoarseClock.currentTimeMillis() ^ System.nanoTime() ^ SEED_STEP.addAndGet(0x9E3779B97F4A7C15L);
 	}
 	/**
 	 * Initialize with a custom seed
@@ -1,11 +1,10 @@
 package princessrtfm.core.util;
 
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.PrimitiveIterator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 
 /**
@@ -22,6 +21,10 @@ public abstract class StringUtil {
 	 * Regex used to check if a string represents boolean <code>false</code>
 	 */
 	public static final String FALSE_PAT_STR = "(?:false|no|off|0|disable|disallow|forbid|deny)";
+	/**
+	 * Regex used to identify a single integer
+	 */
+	public static final String INT_SINGLE_STR = "^-?\\d+$";
 	/**
 	 * Regex used to identify a range of integers
 	 */
@@ -34,6 +37,10 @@ public abstract class StringUtil {
 	 * {@link Pattern} to identify a string that represents boolean <code>false</code>
 	 */
 	public static final Pattern FALSE = Pattern.compile(FALSE_PAT_STR, Pattern.CASE_INSENSITIVE);
+	/**
+	 * {@link Pattern} to identify a single integer, positive or negative
+	 */
+	public static final Pattern INT_SINGLE = Pattern.compile(INT_SINGLE_STR);
 	/**
 	 * {@link Pattern} to identify a range of integers, positive or negative
 	 */
@@ -90,22 +97,39 @@ public abstract class StringUtil {
 	 * <li>Orders the entire list from least to greatest</li>
 	 * <li>Joins the list into a string using the given delimiter</li>
 	 * </ol>
-	 * Duplicates are not included in the returned string.
+	 * Duplicates are not included in the returned string, and a list with no integers in it gives
+	 * an empty string.
 	 *
 	 * @param condensed
 	 *        the string containing the list of integers to enumerate
 	 * @param delimOut
 	 *        the delimiter for the output string
 	 * @return a string containing an expanded and sorted list of the input integers
+	 * @see #parseIntegerList(String)
 	 */
 	public static String expandIntegerList(final String condensed, final String delimOut) {
-		Set<Integer> all = new HashSet<Integer>();
+		IntRangeSet all = parseIntegerList(condensed);
+		if (all.isEmpty()) {
+			return "";
+		}
+		return all.appendTo(new StringBuilder(), delimOut).toString();
+	}
+	/**
+	 * Parse a list of integers and ranges, as used by {@link #expandIntegerList(String, String)},
+	 * into ranges without expanding them, so even a huge range only takes a few bytes.
+	 *
+	 * @param condensed
+	 *        the string containing the list of integers
+	 * @return the integers in the list
+	 */
+	public static IntRangeSet parseIntegerList(final String condensed) {
+		IntRangeSet all = new IntRangeSet();
 		String[] parts = condensed.split(",");
 		for (String section : parts) {
 			section = section.trim();
 			if (section.isEmpty())
 				continue;
-			if (section.matches("^-?\\d+$")) {
+			if (INT_SINGLE.matcher(section).matches()) {
 				// Congratulations, it's a number!
 				// More importantly, it's a SINGLE number.
 				try {
@@ -133,19 +157,12 @@ public abstract class StringUtil {
 					// It's an exercise for the reader!
 					int low = Integer.parseInt(range.group("start"), 10);
 					int high = Integer.parseInt(range.group("end"), 10);
-					if (low > high) {
-						int highReally = low;
-						int lowReally = high;
-						low = lowReally;
-						high = highReally;
-					}
-					else if (low == high) {
+					if (low == high) {
 						all.add(low); // Or all.add(high), take your pick.
 						break;
 					}
-					for (int current = low; current < high; ++current) {
-						all.add(current);
-					}
+					// The higher end has never been included, whichever way around it was written
+					all.add(Math.min(low, high), Math.max(low, high) - 1);
 				}
 				else {
 					// Yeah, no. I can't help you here.
@@ -153,13 +170,31 @@ public abstract class StringUtil {
 				}
 			}
 		}
-		Integer[] numbers = all.toArray(new Integer[] {});
-		Arrays.sort(numbers);
-		StringBuilder expanded = new StringBuilder();
-		for (Integer number : numbers) {
-			expanded.append(delimOut + String.valueOf(number));
-		}
-		return expanded.toString().substring(delimOut.length());
+		return all;
+	}
+	/**
+	 * Stream the integers in a list, as used by {@link #expandIntegerList(String, String)}, in
+	 * ascending order and without duplicates. Only the ranges are kept in memory; the integers are
+	 * generated as they're consumed, and the stream can be made {@link IntStream#parallel()
+	 * parallel}, which splits even a single large range between threads.
+	 *
+	 * @param condensed
+	 *        the string containing the list of integers
+	 * @return the integers in the list
+	 */
+	public static IntStream streamIntegerList(final String condensed) {
+		return parseIntegerList(condensed).stream();
+	}
+	/**
+	 * Iterate over the integers in a list, in the same order as
+	 * {@link #streamIntegerList(String)}, generating them as they're needed
+	 *
+	 * @param condensed
+	 *        the string containing the list of integers
+	 * @return an iterator over the integers in the list
+	 */
+	public static PrimitiveIterator.OfInt iterateIntegerList(final String condensed) {
+		return parseIntegerList(condensed).iterator();
 	}
 	/**
 	 * Check if a string comparator is valid for use with {@link #compare(double, String, double)}
@@ -1,12 +1,20 @@
 package princessrtfm.core.util;
 
 
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
+import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
+import princessrtfm.core.logger.AsyncHandler;
+import princessrtfm.core.logger.AsyncHandler.OverflowPolicy;
 import princessrtfm.core.logger.Level;
+import princessrtfm.core.logger.LogMetrics;
+import princessrtfm.core.logger.LogThrottle;
 import princessrtfm.core.logger.MagicFormatter;
 import princessrtfm.core.logger.MagicFormatter.FormatCode;
 import princessrtfm.core.trace.StackTrace;
@@ -51,10 +59,135 @@ public class UtilityLogger {
 		DEFAULT_LOGGER.setUseParentHandlers(false);
 		DEFAULT_LOGGER.setLevel(Level.ALL);
 	}
+	private static Handler defaultSink = DEFAULT_HANDLER;
+	/**
+	 * Switch the default logger over to an {@link AsyncHandler} with the default capacity and
+	 * overflow policy, so logging threads don't do any formatting or console I/O themselves
+	 *
+	 * @return the new handler
+	 * @see #useAsyncHandler(int, OverflowPolicy)
+	 */
+	public static Handler useAsyncHandler() {
+		return useAsyncHandler(AsyncHandler.DEFAULT_CAPACITY, AsyncHandler.DEFAULT_POLICY);
+	}
+	/**
+	 * Switch the default logger over to an {@link AsyncHandler} writing to <tt>System.err</tt>
+	 * with the {@link #DEFAULT_FORMATTER}. Any previous async handler is closed (after writing out
+	 * whatever it still had queued).
+	 *
+	 * @param capacity
+	 *        the number of records the handler can queue
+	 * @param overflow
+	 *        what to do with new records when the queue is full
+	 * @return the new handler
+	 * @see #useSyncHandler()
+	 */
+	public static synchronized Handler useAsyncHandler(int capacity, OverflowPolicy overflow) {
+		AsyncHandler async = new AsyncHandler(System.err, capacity, overflow);
+		async.setFormatter(DEFAULT_FORMATTER);
+		async.setLevel(Level.ALL);
+		setDefaultSink(async);
+		return async;
+	}
+	/**
+	 * Switch the default logger back to the synchronous {@link #DEFAULT_HANDLER}
+	 *
+	 * @return the {@link #DEFAULT_HANDLER}
+	 * @see #useAsyncHandler()
+	 */
+	public static synchronized Handler useSyncHandler() {
+		setDefaultSink(DEFAULT_HANDLER);
+		return DEFAULT_HANDLER;
+	}
+	private static void setDefaultSink(Handler sink) {
+		if (sink == defaultSink) {
+			return;
+		}
+		Handler old = defaultSink;
+		DEFAULT_LOGGER.addHandler(sink);
+		DEFAULT_LOGGER.removeHandler(old);
+		defaultSink = sink;
+		if (old != DEFAULT_HANDLER) {
+			old.close();
+		}
+	}
+	/**
+	 * An immutable copy of a logger's effective level, so that checking whether a level is enabled
+	 * doesn't have to walk the logger's parents
+	 */
+	protected static final class LevelSnapshot {
+		/**
+		 * The logger the snapshot was taken from
+		 */
+		protected final Logger logger;
+		/**
+		 * The value of {@link UtilityLogger#LEVEL_GENERATION} when the snapshot was taken
+		 */
+		protected final int generation;
+		/**
+		 * The lowest level value that will be logged ({@link Long#MAX_VALUE} if nothing will be,
+		 * since even FATAL has the same value as OFF)
+		 */
+		protected final long threshold;
+		protected LevelSnapshot(Logger from, int gen) {
+			logger = from;
+			generation = gen;
+			java.util.logging.Level effective = null;
+			for (Logger l = from; l != null && effective == null; l = l.getParent()) {
+				effective = l.getLevel();
+			}
+			if (from == null || effective == Level.OFF) {
+				threshold = Long.MAX_VALUE;
+			}
+			else {
+				// An unconfigured root logger behaves as if set to INFO
+				threshold = effective == null ? Level.INFO.intValue() : effective.intValue();
+			}
+		}
+		protected boolean accepts(java.util.logging.Level level) {
+			return level.intValue() >= threshold;
+		}
+	}
 	/**
 	 * The target of all logging performed by this object
 	 */
 	public Logger LOG;
+	/**
+	 * Bumped whenever a logger's level or parent may have changed, which makes every object's
+	 * {@link LevelSnapshot} stale; it's the only volatile read in a level check
+	 *
+	 * @see #refreshLevels()
+	 */
+	private static final AtomicInteger LEVEL_GENERATION = new AtomicInteger();
+	static {
+		// Java 9 and up can say when the logging configuration is reloaded; on 8, call
+		// refreshLevels() after reloading it
+		try {
+			LogManager.class.getMethod("addConfigurationListener", Runnable.class).invoke(LogManager.getLogManager(), new Runnable() {
+				@Override
+				public void run() {
+					refreshLevels();
+				}
+			});
+		}
+		catch (ReflectiveOperationException e) {
+			// Not available
+		}
+	}
+	/**
+	 * The effective level of {@link #LOG}, as of the last refresh. Snapshots are immutable, so
+	 * this doesn't need to be volatile; {@link #LEVEL_GENERATION} decides whether it's current.
+	 *
+	 * @see #levels()
+	 */
+	protected LevelSnapshot levels;
+	/**
+	 * Limits how often the same message can be logged by this object, if set
+	 *
+	 * @see #setThrottle(LogThrottle)
+	 */
+	protected volatile LogThrottle throttle = null;
+	protected ScheduledFuture<?> throttleSummary = null;
 	/**
 	 * Use the default {@link Logger} to log all messages from this object
 	 *
@@ -63,7 +196,7 @@ public class UtilityLogger {
 	 * @see #DEFAULT_FORMATTER
 	 */
 	public UtilityLogger() {
-		LOG = DEFAULT_LOGGER;
+		this(DEFAULT_LOGGER);
 	}
 	/**
 	 * Use the given {@link Logger} to log all messages from this object
@@ -71,6 +204,64 @@ public class UtilityLogger {
 	 */
 	public UtilityLogger(@SuppressWarnings("javadoc") Logger target) {
 		LOG = target;
+		levels = new LevelSnapshot(target, LEVEL_GENERATION.get());
+	}
+	/**
+	 * Make every object re-read its logger's effective level on its next call. This happens
+	 * automatically through {@link #setLevel(java.util.logging.Level)} and
+	 * {@link #setParent(Logger)}, and when the logging configuration is reloaded on Java 9 and up;
+	 * call it after changing levels any other way (directly with
+	 * {@link Logger#setLevel(java.util.logging.Level)}, through JMX, and so on).
+	 */
+	public static void refreshLevels() {
+		LEVEL_GENERATION.incrementAndGet();
+	}
+	/**
+	 * Set the level of this object's logger; every object logging to it, or to a logger that
+	 * inherits its level, sees the change on its next call
+	 *
+	 * @param level
+	 *        the new level, or <code>null</code> to inherit the parent logger's level
+	 */
+	public void setLevel(java.util.logging.Level level) {
+		Logger log = LOG;
+		if (log != null) {
+			log.setLevel(level);
+		}
+		refreshLevels();
+	}
+	/**
+	 * Set the parent of this object's logger, which it inherits its level (and, usually, its
+	 * handlers) from; every object sees the change on its next call
+	 *
+	 * @param parent
+	 *        the new parent logger
+	 */
+	public void setParent(Logger parent) {
+		Logger log = LOG;
+		if (log != null) {
+			log.setParent(parent);
+		}
+		refreshLevels();
+	}
+	/**
+	 * Re-read the effective level of this object's logger
+	 *
+	 * @return the new snapshot
+	 */
+	protected LevelSnapshot refreshLevel() {
+		// Read the generation first, so a change made while walking the parents isn't missed
+		LevelSnapshot fresh = new LevelSnapshot(LOG, LEVEL_GENERATION.get());
+		levels = fresh;
+		return fresh;
+	}
+	/**
+	 * @return the current level snapshot, refreshed first if {@link #LOG} has been replaced or
+	 *         {@link #refreshLevels()} has been called since it was taken
+	 */
+	protected LevelSnapshot levels() {
+		LevelSnapshot snap = levels;
+		return snap.generation == LEVEL_GENERATION.get() && snap.logger == LOG ? snap : refreshLevel();
 	}
 	/**
 	 * Log the name of the current method, with class name
@@ -79,7 +270,7 @@ public class UtilityLogger {
 	 * @see StackTrace#parentMethodName()
 	 */
 	public void trace() {
-		if (LOG == null) {
+		if (!isTraceEnabled()) {
 			return;
 		}
 		// If I had a reason to, it would be POSSIBLE (probably) to reflect the caller, and get more
@@ -87,6 +278,7 @@ public class UtilityLogger {
 		// each, the return type...
 		// Eh, I'll put it in another class. Maybe use it here, maybe not.
 		String full = StackTrace.parentClass() + "." + StackTrace.parentMethodName() + "()";
+		LogMetrics.GLOBAL.logged(Level.TRACE);
 		LOG.log(Level.TRACE, full);
 	}
 	/**
@@ -95,7 +287,7 @@ public class UtilityLogger {
 	 * @see StackTrace
 	 */
 	public void traceLong() {
-		if (LOG == null) {
+		if (!isTraceEnabled()) {
 			return;
 		}
 		// The one is so we skip the creation (the call from traceLong() to the constructor) but not
@@ -114,10 +306,35 @@ public class UtilityLogger {
 	// you to set the level of messages it dumped to various levels, and the one to include
 	// everything was called Paranoid.
 	public void finest(Object msg) {
-		if (LOG == null) {
-			return;
-		}
-		LOG.finest(String.valueOf(msg));
+		log(Level.FINEST, msg);
+	}
+	/**
+	 * Log a FINEST message, only calling the supplier if FINEST messages will actually be logged
+	 *
+	 * @param msg
+	 *        supplies the message to log
+	 */
+	public void finest(Supplier<?> msg) {
+		log(Level.FINEST, msg);
+	}
+	/**
+	 * Log a FINEST message, replacing each <tt>{}</tt> in the template with the next argument, only
+	 * if FINEST messages will actually be logged
+	 *
+	 * @param template
+	 *        the message to log, with a <tt>{}</tt> for each argument
+	 * @param args
+	 *        the arguments to fill in
+	 * @see #substitute(String, Object...)
+	 */
+	public void finest(String template, Object... args) {
+		log(Level.FINEST, template, args);
+	}
+	/**
+	 * @return <code>true</code> if FINEST messages will be logged
+	 */
+	public boolean isFinestEnabled() {
+		return isEnabled(Level.FINEST);
 	}
 	/**
 	 * Log a FINER message
@@ -126,10 +343,35 @@ public class UtilityLogger {
 	 *        the message to log
 	 */
 	public void finer(Object msg) {
-		if (LOG == null) {
-			return;
-		}
-		LOG.finer(String.valueOf(msg));
+		log(Level.FINER, msg);
+	}
+	/**
+	 * Log a FINER message, only calling the supplier if FINER messages will actually be logged
+	 *
+	 * @param msg
+	 *        supplies the message to log
+	 */
+	public void finer(Supplier<?> msg) {
+		log(Level.FINER, msg);
+	}
+	/**
+	 * Log a FINER message, replacing each <tt>{}</tt> in the template with the next argument, only
+	 * if FINER messages will actually be logged
+	 *
+	 * @param template
+	 *        the message to log, with a <tt>{}</tt> for each argument
+	 * @param args
+	 *        the arguments to fill in
+	 * @see #substitute(String, Object...)
+	 */
+	public void finer(String template, Object... args) {
+		log(Level.FINER, template, args);
+	}
+	/**
+	 * @return <code>true</code> if FINER messages will be logged
+	 */
+	public boolean isFinerEnabled() {
+		return isEnabled(Level.FINER);
 	}
 	/**
 	 * Log a FINE message
@@ -138,10 +380,35 @@ public class UtilityLogger {
 	 *        the message to log
 	 */
 	public void fine(Object msg) {
-		if (LOG == null) {
-			return;
-		}
-		LOG.fine(String.valueOf(msg));
+		log(Level.FINE, msg);
+	}
+	/**
+	 * Log a FINE message, only calling the supplier if FINE messages will actually be logged
+	 *
+	 * @param msg
+	 *        supplies the message to log
+	 */
+	public void fine(Supplier<?> msg) {
+		log(Level.FINE, msg);
+	}
+	/**
+	 * Log a FINE message, replacing each <tt>{}</tt> in the template with the next argument, only
+	 * if FINE messages will actually be logged
+	 *
+	 * @param template
+	 *        the message to log, with a <tt>{}</tt> for each argument
+	 * @param args
+	 *        the arguments to fill in
+	 * @see #substitute(String, Object...)
+	 */
+	public void fine(String template, Object... args) {
+		log(Level.FINE, template, args);
+	}
+	/**
+	 * @return <code>true</code> if FINE messages will be logged
+	 */
+	public boolean isFineEnabled() {
+		return isEnabled(Level.FINE);
 	}
 	/**
 	 * Log an INFO message
@@ -150,10 +417,35 @@ public class UtilityLogger {
 	 *        The message to log
 	 */
 	public void info(Object msg) {
-		if (LOG == null) {
-			return;
-		}
-		LOG.info(String.valueOf(msg));
+		log(Level.INFO, msg);
+	}
+	/**
+	 * Log an INFO message, only calling the supplier if INFO messages will actually be logged
+	 *
+	 * @param msg
+	 *        supplies the message to log
+	 */
+	public void info(Supplier<?> msg) {
+		log(Level.INFO, msg);
+	}
+	/**
+	 * Log an INFO message, replacing each <tt>{}</tt> in the template with the next argument, only
+	 * if INFO messages will actually be logged
+	 *
+	 * @param template
+	 *        the message to log, with a <tt>{}</tt> for each argument
+	 * @param args
+	 *        the arguments to fill in
+	 * @see #substitute(String, Object...)
+	 */
+	public void info(String template, Object... args) {
+		log(Level.INFO, template, args);
+	}
+	/**
+	 * @return <code>true</code> if INFO messages will be logged
+	 */
+	public boolean isInfoEnabled() {
+		return isEnabled(Level.INFO);
 	}
 	/**
 	 * Log a WARNING message
@@ -162,10 +454,35 @@ public class UtilityLogger {
 	 *        The message to log
 	 */
 	public void warning(Object msg) {
-		if (LOG == null) {
-			return;
-		}
-		LOG.warning(String.valueOf(msg));
+		log(Level.WARNING, msg);
+	}
+	/**
+	 * Log a WARNING message, only calling the supplier if WARNING messages will actually be logged
+	 *
+	 * @param msg
+	 *        supplies the message to log
+	 */
+	public void warning(Supplier<?> msg) {
+		log(Level.WARNING, msg);
+	}
+	/**
+	 * Log a WARNING message, replacing each <tt>{}</tt> in the template with the next argument, only
+	 * if WARNING messages will actually be logged
+	 *
+	 * @param template
+	 *        the message to log, with a <tt>{}</tt> for each argument
+	 * @param args
+	 *        the arguments to fill in
+	 * @see #substitute(String, Object...)
+	 */
+	public void warning(String template, Object... args) {
+		log(Level.WARNING, template, args);
+	}
+	/**
+	 * @return <code>true</code> if WARNING messages will be logged
+	 */
+	public boolean isWarningEnabled() {
+		return isEnabled(Level.WARNING);
 	}
 	/**
 	 * Log a SEVERE message
@@ -174,10 +491,35 @@ public class UtilityLogger {
 	 *        The message to log
 	 */
 	public void severe(Object msg) {
-		if (LOG == null) {
-			return;
-		}
-		LOG.severe(String.valueOf(msg));
+		log(Level.SEVERE, msg);
+	}
+	/**
+	 * Log a SEVERE message, only calling the supplier if SEVERE messages will actually be logged
+	 *
+	 * @param msg
+	 *        supplies the message to log
+	 */
+	public void severe(Supplier<?> msg) {
+		log(Level.SEVERE, msg);
+	}
+	/**
+	 * Log a SEVERE message, replacing each <tt>{}</tt> in the template with the next argument, only
+	 * if SEVERE messages will actually be logged
+	 *
+	 * @param template
+	 *        the message to log, with a <tt>{}</tt> for each argument
+	 * @param args
+	 *        the arguments to fill in
+	 * @see #substitute(String, Object...)
+	 */
+	public void severe(String template, Object... args) {
+		log(Level.SEVERE, template, args);
+	}
+	/**
+	 * @return <code>true</code> if SEVERE messages will be logged
+	 */
+	public boolean isSevereEnabled() {
+		return isEnabled(Level.SEVERE);
 	}
 	/**
 	 * Log a FATAL message
@@ -187,10 +529,324 @@ public class UtilityLogger {
 	 * @see princessrtfm.core.logger.Level#FATAL
 	 */
 	public void fatal(Object msg) {
-		if (LOG == null) {
+		log(Level.FATAL, msg);
+	}
+	/**
+	 * Log a FATAL message, only calling the supplier if FATAL messages will actually be logged
+	 *
+	 * @param msg
+	 *        supplies the message to log
+	 * @see princessrtfm.core.logger.Level#FATAL
+	 */
+	public void fatal(Supplier<?> msg) {
+		log(Level.FATAL, msg);
+	}
+	/**
+	 * Log a FATAL message, replacing each <tt>{}</tt> in the template with the next argument, only
+	 * if FATAL messages will actually be logged
+	 *
+	 * @param template
+	 *        the message to log, with a <tt>{}</tt> for each argument
+	 * @param args
+	 *        the arguments to fill in
+	 * @see #substitute(String, Object...)
+	 * @see princessrtfm.core.logger.Level#FATAL
+	 */
+	public void fatal(String template, Object... args) {
+		log(Level.FATAL, template, args);
+	}
+	/**
+	 * @return <code>true</code> if FATAL messages will be logged
+	 */
+	public boolean isFatalEnabled() {
+		return isEnabled(Level.FATAL);
+	}
+	/**
+	 * @return <code>true</code> if TRACE messages will be logged
+	 * @see princessrtfm.core.logger.Level#TRACE
+	 */
+	public boolean isTraceEnabled() {
+		return isEnabled(Level.TRACE);
+	}
+	/**
+	 * Check whether a message at the given level would be logged, without building it
+	 *
+	 * @param level
+	 *        the level to check
+	 * @return <code>true</code> if there's a logger and it accepts the given level, as of the last
+	 *         level refresh
+	 */
+	public boolean isEnabled(java.util.logging.Level level) {
+		return levels().accepts(level);
+	}
+	/**
+	 * Log a message at the given level, only turning it into a string if it will actually be
+	 * logged
+	 *
+	 * @param level
+	 *        the level to log at
+	 * @param msg
+	 *        the message to log
+	 */
+	public void log(java.util.logging.Level level, Object msg) {
+		LevelSnapshot snap = levels();
+		if (!snap.accepts(level)) {
 			return;
 		}
-		LOG.log(Level.FATAL, String.valueOf(msg));
+		Logger log = snap.logger;
+		if (msg instanceof String || msg == null ? !allowMessage((String) msg, level) : !allow(msg.getClass(), level)) {
+			return;
+		}
+		LogMetrics.GLOBAL.logged(level);
+		log.log(level, String.valueOf(msg));
+	}
+	/**
+	 * Log a message at the given level, only calling the supplier if it will actually be logged
+	 *
+	 * @param level
+	 *        the level to log at
+	 * @param msg
+	 *        supplies the message to log
+	 */
+	public void log(java.util.logging.Level level, Supplier<?> msg) {
+		LevelSnapshot snap = levels();
+		if (!snap.accepts(level)) {
+			return;
+		}
+		Logger log = snap.logger;
+		// Each lambda gets its own class, so this is effectively the call site
+		if (!allow(msg == null ? null : msg.getClass(), level)) {
+			return;
+		}
+		LogMetrics.GLOBAL.logged(level);
+		log.log(level, String.valueOf(msg == null ? null : msg.get()));
+	}
+	/**
+	 * Log a message at the given level, replacing each <tt>{}</tt> in the template with the next
+	 * argument, only if it will actually be logged
+	 *
+	 * @param level
+	 *        the level to log at
+	 * @param template
+	 *        the message to log, with a <tt>{}</tt> for each argument
+	 * @param args
+	 *        the arguments to fill in
+	 * @see #substitute(String, Object...)
+	 */
+	public void log(java.util.logging.Level level, String template, Object... args) {
+		LevelSnapshot snap = levels();
+		if (!snap.accepts(level)) {
+			return;
+		}
+		Logger log = snap.logger;
+		if (!allow(template, level)) {
+			return;
+		}
+		LogMetrics.GLOBAL.logged(level);
+		log.log(level, substitute(template, args));
+	}
+	/**
+	 * Sample and/or rate limit the messages logged by this object, with a summary of suppressed
+	 * messages logged every ten seconds
+	 *
+	 * @param limits
+	 *        the throttle to apply, or <code>null</code> to stop throttling
+	 * @see #setThrottle(LogThrottle, long)
+	 */
+	public void setThrottle(LogThrottle limits) {
+		setThrottle(limits, 10000);
+	}
+	/**
+	 * Sample and/or rate limit the messages logged by this object. Messages are throttled
+	 * separately depending on where they came from:
+	 * <ul>
+	 * <li><tt>{}</tt> templates by the template</li>
+	 * <li>{@link Supplier}s by their class (so each lambda is its own call site)</li>
+	 * <li>{@link String} messages, and the short messages logged with exceptions, by their text,
+	 * with every run of digits counted as the same (so a message built by concatenation, like
+	 * <tt>"retry #" + n</tt>, is still one message)</li>
+	 * <li>any other object by its class</li>
+	 * </ul>
+	 * Every so often, a "suppressed N similar messages" record is logged for each of those that
+	 * had messages dropped, at the level of the last one dropped.
+	 *
+	 * @param limits
+	 *        the throttle to apply, or <code>null</code> to stop throttling
+	 * @param summaryMillis
+	 *        how often to log the summary of suppressed messages
+	 */
+	public synchronized void setThrottle(LogThrottle limits, long summaryMillis) {
+		if (throttleSummary != null) {
+			throttleSummary.cancel(false);
+			throttleSummary = null;
+		}
+		throttle = limits;
+		if (limits != null) {
+			throttleSummary = limits.schedule(new LogThrottle.Reporter() {
+				@Override
+				public void suppressed(String label, java.util.logging.Level level, long count) {
+					Logger log = LOG;
+					if (log != null) {
+						log.log(level, "Suppressed " + count + " similar message" + (count == 1 ? "" : "s") + ": " + label);
+					}
+				}
+			}, summaryMillis);
+		}
+	}
+	/**
+	 * @return the throttle applied to messages logged by this object, or <code>null</code> if
+	 *         there isn't one
+	 */
+	public LogThrottle getThrottle() {
+		return throttle;
+	}
+	/**
+	 * @param key
+	 *        identifies the message
+	 * @param level
+	 *        the level of the message
+	 * @return <code>true</code> if there's no throttle, or it lets the message through
+	 */
+	protected boolean allow(Object key, java.util.logging.Level level) {
+		LogThrottle limits = throttle;
+		return limits == null || limits.allow(key, level);
+	}
+	/**
+	 * Check the throttle using the message's text as the key, with every run of digits counted as
+	 * the same (see {@link MessageKey})
+	 *
+	 * @param message
+	 *        the message, or the short message logged with an exception
+	 * @param level
+	 *        the level of the message
+	 * @return <code>true</code> if there's no throttle, or it lets the message through
+	 */
+	protected boolean allowMessage(String message, java.util.logging.Level level) {
+		LogThrottle limits = throttle;
+		return limits == null || limits.allow(new MessageKey(String.valueOf(message)), level);
+	}
+	/**
+	 * The throttle key for a plain message: its text, with every run of digits treated as equal,
+	 * so that <tt>"retry #1"</tt> and <tt>"retry #2"</tt> are throttled as one message without
+	 * having to walk the stack to find where they were logged
+	 */
+	protected static final class MessageKey {
+		protected final String text;
+		protected final int hash;
+		protected MessageKey(String message) {
+			text = message;
+			int h = 0;
+			boolean number = false;
+			int len = message.length();
+			for (int i = 0; i < len; ++i) {
+				char c = message.charAt(i);
+				if (isDigit(c)) {
+					if (!number) {
+						h = 31 * h + '#';
+					}
+					number = true;
+				}
+				else {
+					h = 31 * h + c;
+					number = false;
+				}
+			}
+			hash = h;
+		}
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof MessageKey)) {
+				return false;
+			}
+			MessageKey that = (MessageKey) other;
+			if (hash != that.hash) {
+				return false;
+			}
+			String a = text;
+			String b = that.text;
+			int i = 0;
+			int j = 0;
+			while (i < a.length() && j < b.length()) {
+				boolean inNumber = isDigit(a.charAt(i));
+				if (inNumber != isDigit(b.charAt(j))) {
+					return false;
+				}
+				if (inNumber) {
+					while (i < a.length() && isDigit(a.charAt(i))) {
+						++i;
+					}
+					while (j < b.length() && isDigit(b.charAt(j))) {
+						++j;
+					}
+				}
+				else if (a.charAt(i++) != b.charAt(j++)) {
+					return false;
+				}
+			}
+			return i == a.length() && j == b.length();
+		}
+		/**
+		 * @return the text, with each run of digits replaced by <tt>#</tt>, for the summary of
+		 *         suppressed messages
+		 */
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(text.length());
+			boolean number = false;
+			for (int i = 0; i < text.length(); ++i) {
+				char c = text.charAt(i);
+				if (isDigit(c)) {
+					if (!number) {
+						sb.append('#');
+					}
+					number = true;
+				}
+				else {
+					sb.append(c);
+					number = false;
+				}
+			}
+			return sb.toString();
+		}
+		private static boolean isDigit(char c) {
+			return c >= '0' && c <= '9';
+		}
+	}
+	/**
+	 * Replace each <tt>{}</tt> in the template with the next argument, in order. Placeholders
+	 * beyond the last argument are left alone, and extra arguments are ignored.
+	 *
+	 * @param template
+	 *        the string containing <tt>{}</tt> placeholders
+	 * @param args
+	 *        the values to fill in
+	 * @return the filled-in template
+	 */
+	public static String substitute(String template, Object... args) {
+		if (template == null) {
+			return String.valueOf((Object) null);
+		}
+		if (args == null || args.length == 0) {
+			return template;
+		}
+		StringBuilder sb = new StringBuilder(template.length() + 16 * args.length);
+		int from = 0;
+		int next = 0;
+		while (next < args.length) {
+			int hole = template.indexOf("{}", from);
+			if (hole < 0) {
+				break;
+			}
+			sb.append(template, from, hole);
+			sb.append(String.valueOf(args[next++]));
+			from = hole + 2;
+		}
+		sb.append(template, from, template.length());
+		return sb.toString();
 	}
 	/**
 	 * Log a thrown exception as a WARNING, with a short message about the problem
@@ -201,9 +857,10 @@ public class UtilityLogger {
 	 *        the exception to log
 	 */
 	public void thrown(String mini, Throwable t) {
-		if (LOG == null) {
+		if (!isWarningEnabled() || !allowMessage(mini, Level.WARNING)) {
 			return;
 		}
+		LogMetrics.GLOBAL.logged(Level.WARNING);
 		LOG.warning(mini + " [" + t + "]");
 	}
 	/**
@@ -215,9 +872,10 @@ public class UtilityLogger {
 	 *        the exception to log
 	 */
 	public void exception(String mini, Throwable t) {
-		if (LOG == null) {
+		if (!isSevereEnabled() || !allowMessage(mini, Level.SEVERE)) {
 			return;
 		}
+		LogMetrics.GLOBAL.logged(Level.SEVERE);
 		LOG.severe(mini + " [" + t + "]");
 	}
 	/**
@@ -230,9 +888,10 @@ public class UtilityLogger {
 	 * @see princessrtfm.core.logger.Level#FATAL
 	 */
 	public void error(String mini, Throwable t) {
-		if (LOG == null) {
+		if (!isFatalEnabled() || !allowMessage(mini, Level.FATAL)) {
 			return;
 		}
+		LogMetrics.GLOBAL.logged(Level.FATAL);
 		LOG.log(Level.FATAL, mini, t);
 	}
 }